@@ -49,6 +49,12 @@
                                         <a href="${contextPath}/admin/sysinfo">虚拟机信息</a>
                                     </td>
                                 </tr>
+                                <tr>
+                                    <td align="center">&nbsp;</td>
+                                    <td height="31" colspan="2" align="left">
+                                        <a href="${contextPath}/admin/timing">请求耗时</a>
+                                    </td>
+                                </tr>
                                 <tr>
                                     <td align="center">&nbsp;</td>
                                     <td height="31" colspan="2" align="left">
@@ -56,6 +62,12 @@
                                     </td>
                                 </tr>
                             </c:if>
+                            <tr>
+                                <td align="center">&nbsp;</td>
+                                <td height="31" colspan="2" align="left">
+                                    <a href="${contextPath}/admin/alert">我的订阅</a>
+                                </td>
+                            </tr>
                             <tr>
                                 <td width="26%" align="center" class="border_bottom_green">&nbsp;</td>
                                 <td width="74%" height="31" align="left" class="border_bottom_green"><a
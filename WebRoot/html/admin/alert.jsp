@@ -0,0 +1,49 @@
+﻿<%@ taglib prefix="c" uri="http://java.sun.com/jstl/core_rt" %>
+<!DOCTYPE html>
+<html>
+<head>
+    <title>我的订阅</title>
+</head>
+<body>
+<form action="${contextPath}/admin/saveAlert" method="post">
+    <h3 style="color:#FF0">我的订阅</h3>
+    <table width="100%" align="center" cellspacing="2">
+        <tr>
+            <td align="left" valign="middle" width=5% nowrap>关键字：</td>
+            <td align="left" valign="middle">
+                <input type="text" name="query" id="query" size="40"/>
+                <select name="target">
+                    <option value="all">全部</option>
+                    <option value="blog">博文</option>
+                    <option value="code">代码</option>
+                </select>
+                <input type="submit" value=" 订  阅 "/>
+                &nbsp;&nbsp;
+                <font color="#FA0">${msg}</font>
+            </td>
+        </tr>
+        <c:forEach items="${query_list}" var="q">
+            <tr>
+                <td align="left" valign="middle">&nbsp;</td>
+                <td align="left" valign="middle">
+                    <c:out value="${q.QUERY}"/>&nbsp;(${q.TARGET})&nbsp;&nbsp;
+                    <a href="${contextPath}/admin/delAlert/${q.ID}" onclick="return confirm('确定删除该订阅?')">删除</a>
+                </td>
+            </tr>
+        </c:forEach>
+    </table>
+</form>
+<h3 style="color:#FF0">最新命中</h3>
+<table width="100%" align="center" cellspacing="2">
+    <c:forEach items="${hit_list}" var="h">
+        <tr>
+            <td align="left" valign="middle">
+                <a href="${contextPath}/${h.TARGET}/read/${h.TARGET_ID}"><c:out value="${h.TITLE}"/></a>
+            </td>
+            <td align="left" valign="middle"><c:out value="${h.QUERY}"/></td>
+            <td align="left" valign="middle" nowrap>${h.CREATE_DATE}</td>
+        </tr>
+    </c:forEach>
+</table>
+</body>
+</html>
@@ -51,6 +51,13 @@
                 <input type="button" name="updateIndex_Motto" id="updateIndex_Motto"
                        value="更新索引" onClick="update('motto')"/>
         </tr>
+        <tr>
+            <td align="left" valign="middle">文件表：</td>
+            <td align="left" valign="middle">
+                <input type="button" name="createIndex_HFile" id="createIndex_HFile"
+                       value="重建索引" onClick="rebuild('hfile')"/>
+            </td>
+        </tr>
     </table>
 </form>
 <script language="javascript">
@@ -50,5 +50,18 @@
     <td align="left" valign="middle">${requestScope.maxMemory}</td>
   </tr>
 </table>
+<h3 style="color:#FF0">运行指标 <a href="${contextPath}/admin/metrics">(文本格式)</a></h3>
+<table width="100%" border="0">
+  <tr>
+    <th width="40%" align="left" valign="middle">Metric</th>
+    <th width="60%" align="left" valign="middle">Value</th>
+  </tr>
+  <c:forEach items="${requestScope.metrics}" var="item">
+    <tr>
+      <td align="left" valign="top" nowrap><c:out value="${item.name}"/></td>
+      <td align="left" valign="middle">${item.value}</td>
+    </tr>
+  </c:forEach>
+</table>
 </body>
 </html>
@@ -0,0 +1,44 @@
+﻿<%@ taglib prefix="c" uri="http://java.sun.com/jstl/core_rt" %>
+<!DOCTYPE html>
+<html>
+<head>
+<title>请求耗时</title>
+</head>
+<body>
+<form action="${contextPath}/admin/timing" method="post">
+<h3 style="color:#FF0">请求耗时(毫秒，自启动或清空以来)
+  <input type="hidden" name="operation" value="reset"/>
+  <input type="submit" value="清空"/>
+</h3>
+</form>
+<table width="100%" border="0">
+  <tr>
+    <th align="left" valign="middle" nowrap>路由</th>
+    <th align="right" valign="middle">次数</th>
+    <th align="right" valign="middle">平均</th>
+    <th align="right" valign="middle">p50</th>
+    <th align="right" valign="middle">p95</th>
+    <th align="right" valign="middle">p99</th>
+    <th align="right" valign="middle">最大</th>
+    <c:forEach items="${requestScope.timers}" var="timer">
+    <th align="right" valign="middle">${timer}</th>
+    </c:forEach>
+  </tr>
+  <c:forEach items="${requestScope.routes}" var="item">
+    <tr>
+      <td align="left" valign="top" nowrap>${item.key}</td>
+      <td align="right" valign="middle">${item.value.count}</td>
+      <td align="right" valign="middle">${item.value.mean}</td>
+      <td align="right" valign="middle">${item.value.p50}</td>
+      <td align="right" valign="middle">${item.value.p95}</td>
+      <td align="right" valign="middle">${item.value.p99}</td>
+      <td align="right" valign="middle">${item.value.max}</td>
+      <c:forEach items="${requestScope.timers}" var="timer">
+      <td align="right" valign="middle">${item.value.timers[timer]}</td>
+      </c:forEach>
+    </tr>
+  </c:forEach>
+</table>
+<p>db、search、highlight、render 为每次请求在各环节的平均耗时，页面缓存命中的请求记为 pageCache。</p>
+</body>
+</html>
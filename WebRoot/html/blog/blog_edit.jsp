@@ -6,7 +6,7 @@
     <script type="text/javascript">
         KE.show({
             id : 'content',
-            imageUploadJson : '../../jsp/upload_json.jsp',
+            imageUploadJson : '${contextPath}/admin/upload',
             fileManagerJson : '../../jsp/file_manager_json.jsp',
             allowFileManager : true,
             afterCreate : function(id) {
@@ -70,9 +70,8 @@
     var connect = function() {
         if (window["WebSocket"]) {
             recvd = 0;
-            //host = (document.location.host != "" ? document.location.host : "localhost:8000");
-            host = "172.16.1.12:8000";
-            conn = new WebSocket("ws://" + host + "/test");
+            // 聊天服务在应用内的单独端口上，ticket 是一次性的凭证
+            conn = new WebSocket("ws://" + document.location.hostname + ":${chat_port}/chat?room=lobby&ticket=${chat_ticket}");
             conn.onmessage =
                     function(evt) {
                         // alert(evt.data)
@@ -101,15 +100,17 @@
             return false;
         }
         var msg = document.getElementById('msg').value;
-        msg = "[" + user + "]\r\n=> " + msg + "\r\n";
         document.getElementById('msg').value = '';
         if (conn) {
             setTimeout(function() {
-                conn.send(msg);
-                log(msg);
+                conn.send(msg);// 昵称由服务器加上
+                log("[" + user + "]\r\n=> " + escapeHtml(msg) + "\r\n");
             }, 0);
         }
     }
+    function escapeHtml(s) {
+        return s.replace(/&/g, '&amp;').replace(/</g, '&lt;').replace(/>/g, '&gt;').replace(/"/g, '&quot;');
+    }
     function pad(n) {
         return n < 10 ? '0' + n.toString(10) : n.toString(10);
     }
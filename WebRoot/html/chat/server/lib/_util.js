@@ -1 +0,0 @@
-module.exports = require(process.binding("natives").util ? "util" : "sys")
\ No newline at end of file
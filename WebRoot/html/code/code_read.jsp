@@ -1,28 +1,15 @@
 ﻿<%@ taglib prefix="c" uri="http://java.sun.com/jstl/core_rt" %>
+<%@ page import="com.paladin.mvc.Assets" %>
 <!DOCTYPE html>
 <html>
 <head>
     <title>${title}</title>
-    <script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shCore.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushBash.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushCpp.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushCSharp.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushCss.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushDelphi.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushDiff.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushGroovy.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushJava.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushJScript.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushPhp.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushPlain.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushPython.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushRuby.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushScala.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushSql.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushVb.js"></script>
-	<script type="text/javascript" src="${contextPath}/syntaxhighlighter/scripts/shBrushXml.js"></script>
-	<link type="text/css" rel="stylesheet" href="${contextPath}/syntaxhighlighter/styles/shCore.css"/>
-	<link type="text/css" rel="stylesheet" href="${contextPath}/syntaxhighlighter/styles/shThemeDefault.css"/>
+    <% for (String url : Assets.urls("syntaxhighlighter/scripts/highlighter.js")) { %>
+    <script type="text/javascript" src="${contextPath}<%=url%>"></script>
+    <% } %>
+	<% for (String url : Assets.urls("syntaxhighlighter/styles/highlighter.css")) { %>
+	<link type="text/css" rel="stylesheet" href="${contextPath}<%=url%>"/>
+	<% } %>
 	<script type="text/javascript">
 		SyntaxHighlighter.config.clipboardSwf = '${contextPath}/syntaxhighlighter/scripts/clipboard.swf';
 		SyntaxHighlighter.all();
@@ -1,9 +1,11 @@
 <%@ taglib prefix="c" uri="http://java.sun.com/jstl/core_rt" %>
+<%@ page import="com.paladin.mvc.Assets" %>
 <% String contextPath = request.getContextPath(); %>
 <link rel="shortcut icon" href="${contextPath}/images/paladinIco.png"/>
 <link rel="Bookmark" href="${contextPath}/images/paladinIco.png"/>
-<link href="${contextPath}/css/border.css" rel="stylesheet">
-<link href="${contextPath}/css/jquery-ui-1.8.10.custom.css" rel="stylesheet"/>
+<% for (String url : Assets.urls("css/site.css")) { %>
+<link href="${contextPath}<%=url%>" rel="stylesheet"/>
+<% } %>
 <!--<meta http-equiv="Content-Type" content="text/html; charset=utf-8">-->
 <meta charset="utf-8"/>
 <style>
@@ -47,6 +49,6 @@
         TEXT-ALIGN: center;
     }
 </style>
-<script src="${contextPath}/js/jquery-1.5.1.js"></script>
-<script src="${contextPath}/js/jquery-ui-1.8.10.custom.min.js"></script>
-<script src="${contextPath}/js/modernizr-1.7.js"></script>
\ No newline at end of file
+<% for (String url : Assets.urls("js/site.js")) { %>
+<script src="${contextPath}<%=url%>"></script>
+<% } %>
\ No newline at end of file
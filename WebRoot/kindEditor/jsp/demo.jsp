@@ -12,7 +12,7 @@ String htmlData = request.getParameter("content1") != null ? request.getParamete
 	<script type="text/javascript">
 		KE.show({
 			id : 'content1',
-			imageUploadJson : '../../jsp/upload_json.jsp',
+			imageUploadJson : '<%=request.getContextPath()%>/admin/upload',
 			fileManagerJson : '../../jsp/file_manager_json.jsp',
 			allowFileManager : true,
 			afterCreate : function(id) {
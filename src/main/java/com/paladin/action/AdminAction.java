@@ -17,12 +17,26 @@ package com.paladin.action;
 
 import com.google.common.base.Strings;
 import com.paladin.bean.User;
+import com.paladin.common.Constants;
 import com.paladin.common.LuceneHelper;
+import com.paladin.common.Metrics;
+import com.paladin.common.Percolator;
+import com.paladin.common.Timers;
+import com.paladin.common.Uploader;
 import com.paladin.mvc.RequestContext;
+import com.paladin.mvc.TimingFilter;
 import com.paladin.sys.db.QueryHelper;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.lucene.queryParser.ParseException;
+import org.json.simple.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.InputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -76,9 +90,54 @@ public class AdminAction extends BaseAction {
         req.setAttribute("maxMemory", Long.valueOf(maxMemory));
         req.setAttribute("freeMemory", Long.valueOf(freeMemory));
         req.setAttribute("processorNum", Integer.valueOf(processorNum));
+        req.setAttribute("metrics", Metrics.collect().getSamples());
         forward(_reqCtxt, "/html/admin/sys_info.jsp");
     }
 
+    /**
+     * 运行 指标，Prometheus 的 文本 格式，供本机 的 采集 程序 定时 抓取。
+     * 管理员登录后才能查看；web.xml 中 metrics_allow_local 为 true 时本机访问也可以
+     *
+     * @param _reqCtxt
+     */
+    public void metrics(final RequestContext _reqCtxt) throws IOException {
+        User user = getUserFromSession(_reqCtxt);
+        boolean admin = user != null && "admin".equals(user.getRole());
+        boolean local = Boolean.parseBoolean(_reqCtxt.context().getInitParameter("metrics_allow_local"))
+                && isLocal(_reqCtxt.request().getRemoteAddr());
+        if (!admin && !local) {
+            _reqCtxt.forbidden();
+            return;
+        }
+        _reqCtxt.closeCache();
+        _reqCtxt.response().setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        PrintWriter out = _reqCtxt.response().getWriter();
+        Metrics.collect().write(out);
+        out.flush();
+    }
+
+    private static boolean isLocal(String _addr) {
+        return "127.0.0.1".equals(_addr) || "0:0:0:0:0:0:0:1".equals(_addr) || "::1".equals(_addr);
+    }
+
+    /**
+     * 各路由 的 请求 耗时，见 TimingFilter
+     *
+     * @param _reqCtxt
+     */
+    public void timing(final RequestContext _reqCtxt) throws IOException {
+        User user = getUserFromSession(_reqCtxt);
+        if (user == null || !"admin".equals(user.getRole())) {
+            _reqCtxt.forbidden();
+            return;
+        }
+        if ("reset".equals(_reqCtxt.param("operation")))
+            TimingFilter.reset();
+        _reqCtxt.request().setAttribute("routes", TimingFilter.routes());
+        _reqCtxt.request().setAttribute("timers", Timers.NAMES);
+        forward(_reqCtxt, "/html/admin/timing.jsp");
+    }
+
     /**
      * 保存用户信息
      */
@@ -115,6 +174,57 @@ public class AdminAction extends BaseAction {
         }
     }
 
+    /**
+     * 我的订阅：保存的查询 和 最近命中的文章
+     *
+     * @param _reqCtxt
+     */
+    public void alert(final RequestContext _reqCtxt) {
+        User user = getUserFromSession(_reqCtxt);
+        if (user == null) {
+            redirect(_reqCtxt, "/login");
+            return;
+        }
+        HttpServletRequest req = _reqCtxt.request();
+        req.setAttribute("query_list", Percolator.queries(user.getId()));
+        req.setAttribute("hit_list", Percolator.hits(user.getId(), Constants.NUM_PER_PAGE));
+        forward(_reqCtxt, "/html/admin/alert.jsp");
+    }
+
+    /**
+     * 保存 订阅
+     *
+     * @param _reqCtxt
+     */
+    public void saveAlert(final RequestContext _reqCtxt) {
+        User user = getUserFromSession(_reqCtxt);
+        String query = _reqCtxt.param("query");
+        String target = _reqCtxt.param("target");
+        if (user != null && !Strings.isNullOrEmpty(query)) {
+            if (!"blog".equals(target) && !"code".equals(target))
+                target = Percolator.ALL;
+            try {
+                Percolator.register(user.getId(), query.trim(), target);
+            } catch (ParseException e) {
+                _reqCtxt.request().setAttribute("msg", "查询语句有误!");
+            }
+        }
+        alert(_reqCtxt);
+    }
+
+    /**
+     * 删除 订阅
+     *
+     * @param _reqCtxt
+     * @param _id
+     */
+    public void delAlert(final RequestContext _reqCtxt, final long _id) {
+        User user = getUserFromSession(_reqCtxt);
+        if (user != null)
+            Percolator.remove(user.getId(), _id);
+        redirect(_reqCtxt, "/admin/alert");
+    }
+
     /**
      * 转到 索引 管理 页面
      *
@@ -140,4 +250,61 @@ public class AdminAction extends BaseAction {
         LuceneHelper.index(tables, operation.equals("rebuild"));
         forward(_reqCtxt, "/html/admin/lucene_index.jsp");
     }
+
+    /**
+     * 编辑器 上传 图片，返回 kindEditor 要求的 JSON
+     * <p/>
+     * 用 fileupload 的流式接口逐个读取上传的部分，直接写到上传目录，不先缓存到内存或临时目录
+     *
+     * @param _reqCtxt
+     */
+    @SuppressWarnings("unchecked")
+    public void upload(final RequestContext _reqCtxt) throws IOException {
+        _reqCtxt.response().setContentType("text/html; charset=UTF-8");
+        if (getUserFromSession(_reqCtxt) == null) {
+            _reqCtxt.print(uploadError("请先登录。"));
+            return;
+        }
+        if (!ServletFileUpload.isMultipartContent(_reqCtxt.request())) {
+            _reqCtxt.print(uploadError("请选择文件。"));
+            return;
+        }
+
+        ServletFileUpload upload = new ServletFileUpload();
+        upload.setHeaderEncoding("UTF-8");
+        try {
+            FileItemIterator itr = upload.getItemIterator(_reqCtxt.request());
+            while (itr.hasNext()) {
+                FileItemStream item = itr.next();
+                if (item.isFormField())
+                    continue;
+                InputStream in = item.openStream();
+                String name;
+                try {
+                    name = Uploader.saveImage(item.getName(), in);
+                } finally {
+                    in.close();
+                }
+                JSONObject obj = new JSONObject();
+                obj.put("error", 0);
+                obj.put("url", _reqCtxt.contextPath() + "/attached/" + name);
+                _reqCtxt.print(obj.toJSONString());
+                return;
+            }
+            _reqCtxt.print(uploadError("请选择文件。"));
+        } catch (Uploader.RejectedException e) {
+            _reqCtxt.print(uploadError(e.getMessage()));
+        } catch (FileUploadException e) {
+            log.error("Failed to upload", e);
+            _reqCtxt.print(uploadError("上传文件失败。"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String uploadError(String _message) {
+        JSONObject obj = new JSONObject();
+        obj.put("error", 1);
+        obj.put("message", _message);
+        return obj.toJSONString();
+    }
 }
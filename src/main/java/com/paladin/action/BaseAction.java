@@ -19,7 +19,9 @@ import com.google.common.base.Strings;
 import com.paladin.bean.User;
 import com.paladin.common.Constants;
 import com.paladin.common.LuceneHelper;
+import com.paladin.common.Timers;
 import com.paladin.common.Tools;
+import com.paladin.mvc.PageCacheFilter;
 import com.paladin.mvc.RequestContext;
 import com.paladin.sys.db.QueryHelper;
 import org.apache.commons.logging.Log;
@@ -28,6 +30,7 @@ import org.apache.commons.logging.LogFactory;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.*;
 
@@ -120,15 +123,28 @@ public abstract class BaseAction {
      * @param _uri
      */
     protected void forward(final RequestContext _reqCtxt, final String _uri) {
+        long start = System.nanoTime();
         try {
             _reqCtxt.request().getRequestDispatcher(_uri).forward(_reqCtxt.request(), _reqCtxt.response());
         } catch (ServletException e) {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            Timers.time(Timers.RENDER, start);
         }
     }
 
+    /**
+     * 返回 404 状态 和 404 页面，页面缓存 不会 缓存 这样的 响应
+     *
+     * @param _reqCtxt
+     */
+    protected void notFound(final RequestContext _reqCtxt) {
+        _reqCtxt.response().setStatus(HttpServletResponse.SC_NOT_FOUND);
+        forward(_reqCtxt, "/html/error/404.jsp");
+    }
+
     /**
      * 取得当前页码
      *
@@ -202,9 +218,25 @@ public abstract class BaseAction {
         log.info("delete " + _table + " - " + id);
         String sql = "DELETE FROM " + _table.toUpperCase() + " WHERE ID = ?";
         QueryHelper.update(sql, new Object[]{id});
+        PageCacheFilter.evict("/" + _table.toLowerCase());
         redirect(_reqCtxt, "/" + _table.toLowerCase());
     }
 
+    /**
+     * 告知页面缓存当前页面的最后修改时间，以及命中缓存时需要累加点击数的记录
+     *
+     * @param _reqCtxt
+     * @param _lastModified 最后修改时间，为 null 时以缓存时间为准
+     * @param _table        表名
+     * @param _id           记录 id
+     */
+    protected void cacheHint(final RequestContext _reqCtxt, final Date _lastModified, final String _table,
+                             final long _id) {
+        if (_lastModified != null)
+            _reqCtxt.request().setAttribute(PageCacheFilter.LAST_MODIFIED, _lastModified);
+        _reqCtxt.request().setAttribute(PageCacheFilter.HITS, new Object[]{_table.toUpperCase(), _id});
+    }
+
     /**
      * 获取热门tag
      *
@@ -19,10 +19,16 @@ import com.google.common.base.Strings;
 import com.paladin.bean.BaseBlog;
 import com.paladin.bean.Blog;
 import com.paladin.common.Constants;
+import com.paladin.common.Percolator;
+import com.paladin.common.Thumbnails;
 import com.paladin.common.Tools;
+import com.paladin.mvc.PageCacheFilter;
 import com.paladin.mvc.RequestContext;
 import com.paladin.sys.db.DBManager;
+import com.paladin.sys.db.HitCounter;
 import com.paladin.sys.db.QueryHelper;
+import com.paladin.sys.lucene.HtmlStripFilter;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.TermQuery;
 
@@ -88,12 +94,16 @@ public class BlogAction extends BaseAction {
                 dealBlogWhenQ(blog, q);
                 request.setAttribute("q", q);
             }
+            blog.setContent(Thumbnails.rewrite(blog.getContent(), Constants.WIDTH_OF_BLOG_IMAGE));// 插图使用缩略图
             request.setAttribute("blog", blog);
             // --------------------------------- hits++
-            QueryHelper.update("UPDATE BLOG SET HITS = (HITS + 1) WHERE ID = ?", _id);
+            HitCounter.hit("BLOG", _id);
+            blog.setHits(String.valueOf(NumberUtils.toLong(blog.getHits()) + HitCounter.pending("BLOG", _id)));
+            cacheHint(_reqCtxt, blog.getLastmodify_date() != null ? blog.getLastmodify_date() : blog.getCreate_date(),
+                    "BLOG", _id);
             forward(_reqCtxt, "/html/blog/blog_read.jsp");
         } else
-            forward(_reqCtxt, "/html/error/404.jsp");
+            notFound(_reqCtxt);
     }
 
     /**
@@ -115,8 +125,11 @@ public class BlogAction extends BaseAction {
         if (Strings.isNullOrEmpty(id)) {// 添加新文章
             String sql = "INSERT INTO BLOG(TITLE, CONTENT, AUTHOR, CREATE_DATE, LASTMODIFY_DATE, TAG," +
                     " HITS, TOP) VALUES(?, ?, ?, now(), now(), ?, 1, ?)";
-            QueryHelper.update(sql, new String[]{title, content.toString(),
+            long new_id = QueryHelper.insert(sql, new String[]{title, content.toString(),
                     super.getUserFromSession(_reqCtxt).getUsername(), tag, top});
+            PageCacheFilter.evict("/blog");
+            if (new_id > 0)
+                Percolator.percolate("blog", new_id, title, content.toString(), tag);
 
             log.info("Add blog success");
             redirect(_reqCtxt, "/blog");
@@ -124,6 +137,8 @@ public class BlogAction extends BaseAction {
             String sql = "UPDATE BLOG SET TITLE = ?, CONTENT = ?, TAG = ?, LASTMODIFY_DATE = NOW(), " +
                     "TOP = ? WHERE ID = ?";
             QueryHelper.update(sql, new String[]{title, content.toString(), tag, top, id});
+            PageCacheFilter.evict("/blog");
+            Percolator.percolate("blog", NumberUtils.toLong(id), title, content.toString(), tag);
 
             log.info("Update blog success");
             redirect(_reqCtxt, "/blog/read/" + id);
@@ -165,7 +180,7 @@ public class BlogAction extends BaseAction {
      * @param _q    question
      */
     private void dealBlogWhenQ(Blog _blog, String _q) {
-        _q = _q.replaceAll("<[^>]*>", "");
+        _q = HtmlStripFilter.strip(_q);
         TermQuery query = new TermQuery(new Term("field", _q));
 
         String title = _blog.getTitle().trim();
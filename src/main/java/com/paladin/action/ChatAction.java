@@ -15,7 +15,9 @@
  */
 package com.paladin.action;
 
+import com.paladin.bean.User;
 import com.paladin.mvc.RequestContext;
+import com.paladin.sys.chat.ChatServer;
 
 /**
  * Chat Action
@@ -26,7 +28,10 @@ import com.paladin.mvc.RequestContext;
 public class ChatAction extends BaseAction {
 
 	public void index(final RequestContext _reqCtxt) {
-		if (_reqCtxt.sessionAttr("user") != null) {
+		User user = (User) _reqCtxt.sessionAttr("user");
+		if (user != null) {
+			_reqCtxt.request().setAttribute("chat_ticket", ChatServer.ticket(user.getNickname()));
+			_reqCtxt.request().setAttribute("chat_port", ChatServer.port());
 			forward(_reqCtxt, "/html/chat/room.jsp");
 		} else {
 			forward(_reqCtxt, "/login?r=/chat");
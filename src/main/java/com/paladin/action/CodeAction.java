@@ -19,9 +19,14 @@ import com.google.common.base.Strings;
 import com.paladin.bean.BaseBlog;
 import com.paladin.bean.Code;
 import com.paladin.common.Constants;
+import com.paladin.common.Percolator;
 import com.paladin.common.Tools;
+import com.paladin.mvc.PageCacheFilter;
 import com.paladin.mvc.RequestContext;
+import com.paladin.sys.db.HitCounter;
 import com.paladin.sys.db.QueryHelper;
+import com.paladin.sys.lucene.HtmlStripFilter;
+import org.apache.commons.lang3.math.NumberUtils;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -71,7 +76,7 @@ public class CodeAction extends BaseAction {
 
             if (!Strings.isNullOrEmpty(_reqCtxt.param("q"))) {
                 String q = _reqCtxt.param("q");
-                q = Tools.ISO885912UTF8(q).replaceAll("<[^>]*>", "");
+                q = HtmlStripFilter.strip(Tools.ISO885912UTF8(q));
                 String title = code.getTitle().trim();
                 if (title.indexOf(q) >= 0)
                     title = title.replaceAll(q, "<span style='background-color:#f00;'>" + q + "</span>");
@@ -80,10 +85,13 @@ public class CodeAction extends BaseAction {
             }
             request.setAttribute("code", code);
             // --------------------------------hits++
-            QueryHelper.update("UPDATE CODE SET HITS = (HITS + 1) WHERE ID = ?", _id);
+            HitCounter.hit("CODE", _id);
+            code.setHits(String.valueOf(NumberUtils.toLong(code.getHits()) + HitCounter.pending("CODE", _id)));
+            cacheHint(_reqCtxt, code.getLastmodify_date() != null ? code.getLastmodify_date() : code.getCreate_date(),
+                    "CODE", _id);
             forward(_reqCtxt, "/html/code/code_read.jsp");
         } else
-            forward(_reqCtxt, "/html/error/404.jsp");
+            notFound(_reqCtxt);
     }
 
     /**
@@ -101,13 +109,18 @@ public class CodeAction extends BaseAction {
 
         if (Strings.isNullOrEmpty(id)) {// 添加新代码
             String sql = "INSERT INTO CODE(TITLE, CONTENT, AUTHOR, CREATE_DATE, TAG, LANGUAGE, HITS) VALUES(?, ?, ?, now(), ?, ?, 1)";
-            QueryHelper.update(sql, new Object[]{title, content.toString(), "erhu", tag, language});
+            long new_id = QueryHelper.insert(sql, new Object[]{title, content.toString(), "erhu", tag, language});
+            PageCacheFilter.evict("/code");
+            if (new_id > 0)
+                Percolator.percolate("code", new_id, title, content.toString(), tag);
 
             log.info("add new code success");
             redirect(_reqCtxt, "/code");
         } else {// 修改代码
             String sql = "UPDATE CODE SET TITLE = ?, CONTENT = ?, TAG = ?, LASTMODIFY_DATE = NOW(), LANGUAGE = ? WHERE ID = ?";
             QueryHelper.update(sql, new Object[]{title, content.toString(), tag, language, id});
+            PageCacheFilter.evict("/code");
+            Percolator.percolate("code", NumberUtils.toLong(id), title, content.toString(), tag);
 
             log.info("update code success");
             redirect(_reqCtxt, "/code/read/" + id);
@@ -16,15 +16,19 @@ package com.paladin.action;
  */
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.paladin.bean.Motto;
 import com.paladin.common.Constants;
 import com.paladin.common.Tools;
+import com.paladin.mvc.PageCacheFilter;
 import com.paladin.mvc.RequestContext;
 import com.paladin.sys.db.QueryHelper;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 箴言功能点的业务逻辑
@@ -34,17 +38,24 @@ import java.util.List;
  */
 public class MottoAction extends BaseAction {
     /**
-     * 随机箴言
+     * 随机箴言，由后台线程整体替换，读取时不加锁
      */
-    private static List<Motto> randomMotto;
-    /**
-     * 上次获取箴言的时间(单位秒)
-     */
-    private static GregorianCalendar updateTime;
+    private static volatile Motto[] randomMotto = new Motto[0];
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("motto-refresh-%d").setDaemon(true).build());
 
     static {
-        updateTime = new GregorianCalendar();
-        generateRandomMotto(); // 类加载时获取箴言
+        // 类加载时即在后台获取箴言，之后定时更新
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    generateRandomMotto();
+                } catch (Exception e) {// 异常 不能 抛出，否则 定时 任务 会 终止
+                    e.printStackTrace();
+                }
+            }
+        }, 0, Constants.MINUTE_UPDATE_MOTTO, TimeUnit.MINUTES);
     }
 
     @Override
@@ -84,11 +95,13 @@ public class MottoAction extends BaseAction {
         if (Strings.isNullOrEmpty(id)) {
             QueryHelper.update("INSERT INTO MOTTO(CONTENT, AUTHOR, TAG) VALUES(?, ?, ?)",
                     new Object[]{content.toString(), author, tag});
+            PageCacheFilter.evict("/motto");
             log.info("Add motto success");
             redirect(_reqCtxt, "/motto");
         } else {
             QueryHelper.update("UPDATE MOTTO SET CONTENT = ?, TAG = ?, AUTHOR = ? WHERE ID = ?",
                     new Object[]{content.toString(), tag, author, id});
+            PageCacheFilter.evict("/motto");
             log.info("Update motto success");
             redirect(_reqCtxt, "/motto");
         }
@@ -96,35 +109,41 @@ public class MottoAction extends BaseAction {
 
     /**
      * 提供 随机 箴言(公共 调用)
+     *
+     * @return 箴言池尚未加载时返回 null
      */
     public static Motto getRandomMotto() {
-        // 获取 当前 时间（毫秒）
-        GregorianCalendar time = new GregorianCalendar();
-
-        // 若更新间隔超过指定值，则重新获取箴言并更新updateTime
-        if (randomMotto == null || Tools.getSecondsBetweenTwoDate(time, updateTime) > Constants.MINUTE_UPDATE_MOTTO * 60) {
-            updateTime = time;
-            generateRandomMotto();
-        }
-
-        long index = Tools.random(0, Constants.NUM_RANDOM_MOTTO - 1);
-        if (randomMotto.size() <= index)
+        Motto[] pool = randomMotto;
+        if (pool.length == 0)
             return null;
-        return (Motto) (randomMotto.toArray())[(int) index];
+        return pool[(int) Tools.random(0, pool.length - 1)];
     }
 
     /**
-     * 从DB中提取箴言
+     * 从DB中随机提取箴言：先取全部 ID，再从中随机抽取 NUM_RANDOM_MOTTO 个
      */
     private static void generateRandomMotto() {
-        // 获取 总 记录数
-        String sql = "SELECT COUNT(*) FROM MOTTO";
-        long count = QueryHelper.stat(sql);
-        // 在[0, count - 7]之间取一个数作为LIMIT的起点
-        long begin = Math.abs(Tools.random(0, count - Constants.NUM_RANDOM_MOTTO));
-        // 获取 箴言
-        sql = "SELECT * FROM MOTTO LIMIT ?, ?";
-        randomMotto = QueryHelper.query(Motto.class, sql, new Object[]{begin, Constants.NUM_RANDOM_MOTTO});
+        List<Long> id_list = QueryHelper.query(Long.class, "SELECT ID FROM MOTTO");
+        if (id_list == null)
+            return;
+        Object[] ids = id_list.toArray();// 驱动返回的可能是 Integer
+        int n = Math.min(Constants.NUM_RANDOM_MOTTO, ids.length);
+        if (n == 0) {
+            randomMotto = new Motto[0];
+            return;
+        }
+        // 部分 洗牌，前 n 个即为抽中的 ID
+        StringBuilder sql = new StringBuilder("SELECT * FROM MOTTO WHERE ID IN (");
+        Object[] params = new Object[n];
+        for (int i = 0; i < n; i++) {
+            Tools.swap(ids, i, (int) Tools.random(i, ids.length - 1));
+            params[i] = ids[i];
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        List<Motto> mottos = QueryHelper.query(Motto.class, sql.toString(), params);
+        if (mottos != null)
+            randomMotto = mottos.toArray(new Motto[mottos.size()]);
     }
 
     /**
@@ -159,4 +178,11 @@ public class MottoAction extends BaseAction {
     public void del(final RequestContext _reqCtxt) {
         super.del(_reqCtxt, "motto");
     }
+
+    /**
+     * 停止 更新 箴言 的 后台 线程
+     */
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
 }
@@ -18,7 +18,6 @@ package com.paladin.action;
 import com.google.common.base.Strings;
 import com.paladin.mvc.RequestContext;
 
-import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -66,8 +65,13 @@ public class MusicAction extends BaseAction {
         }
     }
 
+    /**
+     * 下载 音乐，由 FileServlet 输出，支持 Range 断点续传
+     *
+     * @param _reqCtxt
+     * @param _mp3Name
+     */
     public void download(final RequestContext _reqCtxt, final String _mp3Name) {
-        final HttpServletRequest request = _reqCtxt.request();
         forward(_reqCtxt, "/music_store/" + _mp3Name);
     }
 }
@@ -1,107 +1,457 @@
 package com.paladin.action;
 
-import com.paladin.common.Tools;
+import com.paladin.sys.db.DBManager;
 import com.paladin.sys.db.QueryHelper;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 扫描磁盘，将文件记录同步到 HFILE 表
+ * <p/>
+ * 每个目录由 ForkJoinPool 中的一个任务读取，子目录再拆分为新的任务；文件属性随目录一起读出，不再逐个调用 File 的方法。
+ * 扫描到的变化放入有界队列，由唯一的写库线程在同一个连接上批量写入，扫描与写库同时进行，写库跟不上时扫描线程会等待。
+ * <p/>
+ * HFILE 为空时直接插入所有记录；否则逐个目录比较库中记录的大小和修改时间，只插入、更新、删除有变化的部分。
+ * 目录的修改时间与库中记录相同时，目录下没有增删改名，只读取库中的子目录记录继续向下比较，不再比较其中的文件；
+ * 文件内容被原地修改时目录的修改时间不变，这样的变化要靠 -watch 发现。目录的 MODIFIED 在目录本身同步完后才写入，
+ * 新目录先记为 0，扫描中断时下次仍会完整比较。
+ * 以 -watch 启动时，同步完成后用 WatchService 监视所有目录，只重新同步发生变化的目录，这些目录总是完整比较。
+ */
 public class RunDisk2DB {
 
-    private static List<String[]> dataList = new ArrayList<String[]>();
-    private static String sql = "INSERT INTO HFILE(FILENAME, FILETYPE, FILEPATH) VALUES (?, ?, ?)";
+    private static final String INSERT = "INSERT INTO HFILE(FILENAME, FILETYPE, FILEPATH, PARENT, FILESIZE, MODIFIED) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE HFILE SET FILESIZE = ?, MODIFIED = ? WHERE ID = ?";
+    private static final String DELETE = "DELETE FROM HFILE WHERE ID = ?";
+    private static final String DELETE_TREE = "DELETE FROM HFILE WHERE PARENT = ? OR PARENT LIKE ? ESCAPE '|'";
+    private static final String CHILDREN = "SELECT ID, FILENAME, FILETYPE, FILESIZE, MODIFIED FROM HFILE WHERE PARENT = ?";
+    private static final String CHILD_DIRS = CHILDREN + " AND FILETYPE = 'DIR'";
+    private static final String DIR_DONE = "UPDATE HFILE SET MODIFIED = ? WHERE PARENT = ? AND FILENAME = ? AND FILETYPE = 'DIR'";
+    private static final Rec END = new Rec(0, null, null, null, null, 0, 0);// 扫描结束的标记
+
+    private final boolean sync;// 是否与库中记录比较
+    private final WatchService watcher;// 不监视时为 null
+    private BlockingQueue<Rec> queue;
+    private AtomicLong scanned;
+    private volatile boolean failed;// 写库出错后停止扫描
+
+    private RunDisk2DB(boolean sync, WatchService watcher) {
+        this.sync = sync;
+        this.watcher = watcher;
+    }
 
     /**
      * 建立索引
+     *
+     * @param _args [-watch] 要扫描的目录...
      */
-    public static void index() {
+    public static void index(String... _args) {
+        boolean watch = _args.length > 0 && "-watch".equals(_args[0]);
+        List<Path> roots = new ArrayList<Path>();
+        for (int i = watch ? 1 : 0; i < _args.length; i++)
+            roots.add(new File(_args[i]).toPath());
+        if (roots.isEmpty()) {
+            System.out.println("用法：java com.paladin.action.RunDisk2DB [-watch] 目录...");
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         System.out.println("建立索引是很费时的操作哦！你确定要建立索引吗？（Y/N）");
         String input = scanner.nextLine();
         if ("Y".equalsIgnoreCase(input)) {
-            //File[] roots = File.listRoots();
-            File[] roots = new File[]{new File("D:\\")};
-            for (File file : roots)
-                index(file);
-            // 清除残余在list中的文件记录
-            writeRec();
+            upgradeSchema();
+            long count = QueryHelper.stat("SELECT COUNT(*) FROM HFILE");
+            if (count < 0) {
+                System.out.println("无法读取 HFILE 表！");
+                return;
+            }
+            try {
+                if (watch)
+                    follow(roots, count > 0);
+                else
+                    new RunDisk2DB(count > 0, null).crawl(roots, true);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         } else {
             System.out.println("出错啦！不给力！");
         }
     }
 
     /**
-     * 遍历文件系统，将数据插入DB
+     * 旧的 HFILE 表没有 PARENT、FILESIZE、MODIFIED 三列，加上这三列并根据 FILEPATH 填写 PARENT
+     */
+    private static void upgradeSchema() {
+        List<Map<String, Object>> columns = QueryHelper.queryList("SHOW COLUMNS FROM HFILE LIKE 'PARENT'");
+        if (columns == null || !columns.isEmpty())
+            return;
+        System.out.println("为 HFILE 添加 PARENT、FILESIZE、MODIFIED 列...");
+        QueryHelper.update("ALTER TABLE HFILE ADD COLUMN PARENT VARCHAR(1000), "
+                + "ADD COLUMN FILESIZE BIGINT NOT NULL DEFAULT 0, ADD COLUMN MODIFIED BIGINT NOT NULL DEFAULT 0");
+        QueryHelper.update("UPDATE HFILE SET PARENT = LEFT(FILEPATH, CHAR_LENGTH(FILEPATH) - CHAR_LENGTH(FILENAME) - 1)");
+        QueryHelper.update("CREATE INDEX IDX_HFILE_PARENT ON HFILE (PARENT(255))");
+    }
+
+    /**
+     * 同步一次后持续监视，目录有变化时只重新同步这个目录，新建的子目录会被完整扫描
+     *
+     * @param _roots
+     * @param _sync
+     */
+    private static void follow(List<Path> _roots, boolean _sync) throws IOException, InterruptedException {
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        try {
+            new RunDisk2DB(_sync, watcher).crawl(_roots, true);
+            RunDisk2DB incremental = new RunDisk2DB(true, watcher);
+            System.out.println("开始监视文件变化...");
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<Path>();
+                Set<Path> lost = new LinkedHashSet<Path>();// 事件溢出的目录，需要完整扫描
+                WatchKey key = watcher.take();
+                do {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents())
+                        (event.kind() == StandardWatchEventKinds.OVERFLOW ? lost : changed).add(dir);
+                    key.reset();
+                    // 合并一段时间内的事件，避免每个文件都触发一次同步
+                    key = watcher.poll(Constant.watchDelay, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                changed.removeAll(lost);
+                if (!lost.isEmpty())
+                    incremental.crawl(lost, true);
+                if (!changed.isEmpty())
+                    incremental.crawl(changed, false);
+            }
+        } finally {
+            watcher.close();
+        }
+    }
+
+    /**
+     * 并行遍历文件系统，同时将变化写入DB，全部写完后返回
      *
-     * @param dir Directory
+     * @param _dirs
+     * @param _recursive 为 false 时只同步这些目录本身，已有的子目录不再扫描
+     */
+    private void crawl(Collection<Path> _dirs, boolean _recursive) {
+        long begin = System.currentTimeMillis();
+        queue = new ArrayBlockingQueue<Rec>(Constant.queueSize);
+        scanned = new AtomicLong();
+        failed = false;
+        Writer writer = new Writer();
+        Thread writer_thread = new Thread(writer, "disk2db-writer");
+        writer_thread.start();
+
+        ForkJoinPool pool = new ForkJoinPool(Constant.crawlThreads);
+        try {
+            for (Path dir : _dirs)
+                pool.invoke(new DirTask(dir, _recursive, -1, false));
+        } catch (RuntimeException e) {
+            if (!failed)
+                throw e;
+        } finally {
+            pool.shutdown();
+            enqueue(END);
+            try {
+                writer_thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("扫描" + scanned.get() + "个文件，写入" + writer.written + "条变化，共耗时"
+                + (System.currentTimeMillis() - begin) / 1000.0 + "秒");
+    }
+
+    /**
+     * 放入队列，队列满时等待写库线程
+     */
+    private void enqueue(Rec _rec) {
+        try {
+            while (!queue.offer(_rec, 1, TimeUnit.SECONDS)) {
+                if (failed && _rec == END)
+                    return;
+                if (failed)
+                    throw new IllegalStateException("写库失败，停止扫描");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 目录在 PARENT 列中的值：去掉末尾的分隔符，与 FILEPATH 去掉 FILENAME 后的结果一致
+     */
+    private static String key(Path _dir) {
+        String path = _dir.toString();
+        String separator = _dir.getFileSystem().getSeparator();
+        return path.endsWith(separator) ? path.substring(0, path.length() - separator.length()) : path;
+    }
+
+    /**
+     * 读取一个目录，与库中记录比较后将变化入队，子目录拆分为新的任务
      */
-    private static void index(File dir) {
-        if (dir.listFiles() != null) {
-            for (File f : dir.listFiles()) {
-                StringBuilder data_line = new StringBuilder();
-                String file_name = f.getName();
-                data_line.append(file_name);
-                String file_path = f.getPath();
-                if (f.isFile()) {
+    private class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final boolean recursive;
+        private final long dir_modified;// 目录的修改时间，-1 表示扫描的起点，不写入
+        private final boolean unchanged;// 修改时间与库中相同，只比较子目录
+
+        DirTask(Path dir, boolean recursive, long dir_modified, boolean unchanged) {
+            this.dir = dir;
+            this.recursive = recursive;
+            this.dir_modified = dir_modified;
+            this.unchanged = unchanged;
+        }
+
+        @Override
+        protected void compute() {
+            final Map<String, BasicFileAttributes> entries = new LinkedHashMap<String, BasicFileAttributes>();
+            try {
+                // 深度为 1 时，目录下的每一项(包括子目录)都会连同属性一起交给 visitFile
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (!file.equals(dir))
+                            entries.put(file.getFileName().toString(), attrs);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("无法读取目录 " + dir + "：" + e.getMessage());
+                return;
+            }
+            if (watcher != null) {
+                try {
+                    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException e) {
+                    System.err.println("无法监视目录 " + dir + "：" + e.getMessage());
+                }
+            }
+
+            String parent = key(dir);
+            Map<String, String[]> stored = sync ? stored(parent) : new HashMap<String, String[]>();
+            boolean dirs_only = sync && unchanged;
+            List<DirTask> children = new ArrayList<DirTask>();
+            for (Map.Entry<String, BasicFileAttributes> e : entries.entrySet()) {
+                String file_name = e.getKey();
+                BasicFileAttributes attrs = e.getValue();
+                Path file = dir.resolve(file_name);
+                String file_type;
+                if (attrs.isDirectory()) {
+                    file_type = "DIR";
+                } else if (attrs.isRegularFile()) {
+                    scanned.incrementAndGet();
                     int index_of_dot = file_name.lastIndexOf('.');
-                    String file_type;
                     if (index_of_dot > 0)
-                        file_type = file_name.substring(index_of_dot + 1, file_name.length()).toLowerCase();
+                        file_type = file_name.substring(index_of_dot + 1).toLowerCase();
                     else
                         file_type = "Any";
-                    if (!Constant.includeFileType.contains(file_type)) {
-                        data_line.setLength(0);
+                    if (dirs_only || !Constant.includeFileType.contains(file_type))
                         continue;
-                    }
-                    writeDataDB(new String[]{file_name, file_type, file_path});
                 } else {
-                    writeDataDB(new String[]{file_name, "DIR", file_path});
-                    index(f);
+                    continue;
                 }
-                data_line.setLength(0);
+
+                long size = attrs.isDirectory() ? 0 : attrs.size();
+                long modified = attrs.lastModifiedTime().toMillis();
+                String[] old = (stored != null) ? stored.remove(file_name) : null;
+                boolean fresh = (old == null);
+                if (old != null && !file_type.equals(old[1])) {// 类型变了(如目录换成了同名文件)，删除后重新插入
+                    enqueue(new Rec(Rec.DELETE, old[0], old[1], file.toString(), null, 0, 0));
+                    fresh = true;
+                }
+                if (fresh) {// 目录的修改时间先记为 0，同步完后再写入
+                    if (stored != null)
+                        enqueue(new Rec(Rec.INSERT, file_name, file_type, file.toString(), parent, size,
+                                attrs.isDirectory() ? 0 : modified));
+                } else if (!attrs.isDirectory()
+                        && (NumberUtils.toLong(old[2]) != size || NumberUtils.toLong(old[3]) != modified)) {
+                    enqueue(new Rec(Rec.UPDATE, old[0], null, null, null, size, modified));
+                }
+                // 新出现的目录总是完整扫描
+                if (attrs.isDirectory() && (recursive || fresh))
+                    children.add(new DirTask(file, true, modified, !fresh && NumberUtils.toLong(old[3]) == modified));
+            }
+
+            // 剩下的是已经不存在的文件和目录
+            if (stored != null)
+                for (Map.Entry<String, String[]> e : stored.entrySet())
+                    enqueue(new Rec(Rec.DELETE, e.getValue()[0], e.getValue()[1], dir.resolve(e.getKey()).toString(),
+                            null, 0, 0));
+            // 本目录的变化都已入队，写库线程按顺序执行，之后才记下目录的修改时间
+            if (stored != null && dir_modified >= 0 && !dirs_only)
+                enqueue(new Rec(Rec.DIR_DONE, dir.getFileName().toString(), null, null, key(dir.getParent()), 0,
+                        dir_modified));
+            invokeAll(children);
+        }
+
+        /**
+         * 库中该目录下的记录(目录没有变化时只有子目录)：FILENAME -> {ID, FILETYPE, FILESIZE, MODIFIED}，
+         * 重复的记录直接入队删除
+         *
+         * @return 查询失败时返回 null，这个目录不做任何修改
+         */
+        private Map<String, String[]> stored(String _parent) {
+            List<Map<String, Object>> rows = QueryHelper.queryList(unchanged ? CHILD_DIRS : CHILDREN, _parent);
+            if (rows == null) {
+                System.err.println("无法读取目录 " + dir + " 的记录，跳过");
+                return null;
             }
+            Map<String, String[]> stored = new HashMap<String, String[]>(rows.size() * 2);
+            for (Map<String, Object> row : rows) {
+                String[] old = stored.put((String) row.get("FILENAME"), new String[]{(String) row.get("ID"),
+                        (String) row.get("FILETYPE"), (String) row.get("FILESIZE"), (String) row.get("MODIFIED")});
+                if (old != null)
+                    enqueue(new Rec(Rec.DELETE, old[0], null, null, null, 0, 0));
+            }
+            return stored;
         }
     }
 
     /**
-     * 将数据定入DB,一次1000条
-     *
-     * @param _par DATA={filename+filetype+path}
+     * 一条要写入的变化
      */
-    private static void writeDataDB(String[] _par) {
-        dataList.add(_par);
-        if (dataList.size() > Constant.lines2write) {
-            String[][] params = new String[dataList.size()][];
-            dataList.toArray(params);
-            java.util.GregorianCalendar begin = new GregorianCalendar();
-            QueryHelper.batch(sql, params);
-            java.util.GregorianCalendar end = new GregorianCalendar();
-            double time = Tools.getSecondsBetweenTwoDate(begin, end);
-            System.out.println("插入" + dataList.size() + "条数据， 耗时" + time + "秒");
-            dataList.clear();
+    private static class Rec {
+        static final int INSERT = 1;
+        static final int UPDATE = 2;
+        static final int DELETE = 3;
+        static final int DIR_DONE = 4;// 目录同步完，写入目录的修改时间
+
+        final int op;
+        final String value;// INSERT、DIR_DONE 时为文件名，其余为 ID
+        final String type;
+        final String path;
+        final String parent;
+        final long size;
+        final long modified;
+
+        Rec(int op, String value, String type, String path, String parent, long size, long modified) {
+            this.op = op;
+            this.value = value;
+            this.type = type;
+            this.path = path;
+            this.parent = parent;
+            this.size = size;
+            this.modified = modified;
         }
     }
 
-    private static void writeRec() {
-        if (dataList.size() != 0) {
-            String[][] params = new String[dataList.size()][];
-            dataList.toArray(params);
-            java.util.GregorianCalendar begin = new GregorianCalendar();
-            QueryHelper.batch(sql, params);
-            java.util.GregorianCalendar end = new GregorianCalendar();
-            double time = Tools.getSecondsBetweenTwoDate(begin, end);
-            System.out.println("插入" + dataList.size() + "条数据， 耗时" + time + "秒");
-            dataList.clear();
+    /**
+     * 写库线程：整个扫描过程只用一个连接，每次取出最多 {@link Constant#lines2write} 条变化，
+     * 按 删除、更新、插入、目录完成 的顺序批量执行后提交
+     */
+    private class Writer implements Runnable {
+        private long written;
+
+        public void run() {
+            Connection conn = DBManager.getConnection();
+            PreparedStatement[] ps = new PreparedStatement[5];
+            List<Rec> batch = new ArrayList<Rec>(Constant.lines2write);
+            try {
+                conn.setAutoCommit(false);
+                ps[0] = conn.prepareStatement(DELETE_TREE);
+                ps[Rec.DELETE] = conn.prepareStatement(DELETE);
+                ps[Rec.UPDATE] = conn.prepareStatement(UPDATE);
+                ps[Rec.INSERT] = conn.prepareStatement(INSERT);
+                ps[Rec.DIR_DONE] = conn.prepareStatement(RunDisk2DB.DIR_DONE);
+                boolean end = false;
+                while (!end) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, Constant.lines2write - 1);
+                    if (batch.get(batch.size() - 1) == END) {
+                        batch.remove(batch.size() - 1);
+                        end = true;
+                    }
+                    write(conn, ps, batch);
+                    batch.clear();
+                }
+            } catch (Exception e) {
+                failed = true;
+                e.printStackTrace();
+            } finally {
+                for (PreparedStatement p : ps)
+                    DbUtils.closeQuietly(p);
+                DBManager.closeConnection();
+            }
+        }
+
+        private void write(Connection _conn, PreparedStatement[] _ps, List<Rec> _batch) throws SQLException {
+            if (_batch.isEmpty())
+                return;
+            long begin = System.currentTimeMillis();
+            for (Rec rec : _batch) {
+                PreparedStatement ps = _ps[rec.op];
+                switch (rec.op) {
+                    case Rec.INSERT:
+                        ps.setString(1, rec.value);
+                        ps.setString(2, rec.type);
+                        ps.setString(3, rec.path);
+                        ps.setString(4, rec.parent);
+                        ps.setLong(5, rec.size);
+                        ps.setLong(6, rec.modified);
+                        break;
+                    case Rec.UPDATE:
+                        ps.setLong(1, rec.size);
+                        ps.setLong(2, rec.modified);
+                        ps.setString(3, rec.value);
+                        break;
+                    case Rec.DIR_DONE:
+                        ps.setLong(1, rec.modified);
+                        ps.setString(2, rec.parent);
+                        ps.setString(3, rec.value);
+                        break;
+                    default:
+                        ps.setString(1, rec.value);
+                        if ("DIR".equals(rec.type)) {// 连同目录下的所有记录一起删除
+                            String key = key(new File(rec.path).toPath());
+                            _ps[0].setString(1, key);
+                            _ps[0].setString(2, key.replace("|", "||").replace("%", "|%").replace("_", "|_")
+                                    + File.separator + "%");
+                            _ps[0].addBatch();
+                        }
+                }
+                ps.addBatch();
+            }
+            for (int i : new int[]{0, Rec.DELETE, Rec.UPDATE, Rec.INSERT, Rec.DIR_DONE})
+                _ps[i].executeBatch();
+            _conn.commit();
+            written += _batch.size();
+            System.out.println("写入" + _batch.size() + "条变化， 耗时" + (System.currentTimeMillis() - begin) / 1000.0
+                    + "秒");
         }
     }
 
     /**
      * 方法入口
      *
-     * @param args nothing:-)
+     * @param args [-watch] 要扫描的目录...
      */
     public static void main(String[] args) {
-        index();
+        index(args);
     }
 }
 
@@ -109,9 +459,12 @@ public class RunDisk2DB {
  * 常量
  */
 class Constant {
-    public static int lines2write = 1000;// 每1,000条记录写一次文件
+    public static int lines2write = 1000;// 每1,000条记录写一次库
+    public static int queueSize = lines2write * 10;// 待写库记录的队列长度
+    public static int crawlThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);// 扫描线程数
+    public static long watchDelay = 1000;// 合并文件变化事件的时间(毫秒)
     public static String split = ":";
-    public static List<String> includeFileType = new ArrayList<String>();
+    public static Set<String> includeFileType = new HashSet<String>();
 
     // 要检索的文件类型
     static {
@@ -121,6 +474,6 @@ class Constant {
                 "xml", "java", "csv", "log", "wps", "wsdl", "theme", "sql", "vm", "avi", "docx", "pptx", "tld",
                 "properties", "xlsx", "wmv", "wma", "war", "tar", "gz", "asm", "rm", "rmvb", "srt", "settings",
                 "ini", "dat", "bmp", "thrift"};
-        includeFileType = Arrays.asList(arrIncludeFileType);
+        includeFileType.addAll(Arrays.asList(arrIncludeFileType));
     }
-}
\ No newline at end of file
+}
@@ -18,8 +18,11 @@ package com.paladin.action;
 import com.google.common.base.Strings;
 import com.paladin.bean.Blog;
 import com.paladin.common.Constants;
+import com.paladin.common.Timers;
 import com.paladin.common.Tools;
 import com.paladin.mvc.RequestContext;
+import com.paladin.sys.lucene.HtmlStripFilter;
+import com.paladin.sys.lucene.Searchers;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
@@ -28,13 +31,11 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.highlight.PreparedQuery;
 import org.apache.lucene.util.Version;
 import org.wltea.analyzer.lucene.IKAnalyzer;
-import org.wltea.analyzer.lucene.IKSimilarity;
 
 import javax.servlet.http.HttpServletRequest;
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -67,9 +68,12 @@ public class SearchAction extends BaseAction {
             log.info("q = " + q);
             request.setAttribute("q", q);
 
-            _b(request, q, "blog");// 查找博文
-            _b(request, q, "code");// 查找代码
-            _b(request, q, "motto");// 查找箴言
+            // 三个表共用同一个查询，高亮用的关键字也只提取一次
+            Query query = new QueryParser(Version.LUCENE_33, fields, new IKAnalyzer(false)).parse(q);
+            PreparedQuery hl_query = new PreparedQuery(query, null);
+            _b(request, query, hl_query, "blog");// 查找博文
+            _b(request, query, hl_query, "code");// 查找代码
+            _b(request, query, hl_query, "motto");// 查找箴言
 
             // 刷新页面时应该聚集到哪个选项卡
             String type = _reqCtxt.param("t");
@@ -99,36 +103,41 @@ public class SearchAction extends BaseAction {
      * search using lucene
      *
      * @param request
-     * @param _query
+     * @param query
+     * @param hl_query 高亮 用的 查询
      * @throws IOException
-     * @throws ParseException
      */
-    private void _b(final HttpServletRequest request, final String _query, final String _table) throws IOException, ParseException, InvalidTokenOffsetsException {
-        final String index_dir = Constants.LUCENE_INDEX_ROOT + _table;
-
-        IndexSearcher searcher = new IndexSearcher(FSDirectory.open(new File(index_dir)));
-        QueryParser parser = new QueryParser(Version.LUCENE_33, fields, new IKAnalyzer(false));
-        Query query = parser.parse(_query);
-
-        TopScoreDocCollector collector = TopScoreDocCollector.create(10000, true);
-        searcher.search(query, collector);
-        // 在 索引器 中使用 IKSimilarity 相似度 评估器
-        searcher.setSimilarity(new IKSimilarity());
-
-        // 分页
-        super.doPage(request, collector.getTotalHits(), Constants.NUM_PER_PAGE_SEARCH, "_" + _table);
-        log.info("get " + _table + ":" + collector.getTotalHits());
-
-        // 查询当前页的记录
-        int begin = (page_NO - 1) * Constants.NUM_PER_PAGE_SEARCH;
-        begin = begin < 0 ? 0 : begin;
-        ScoreDoc[] score_docs = collector.topDocs(begin, Constants.NUM_PER_PAGE_SEARCH).scoreDocs;
-
+    private void _b(final HttpServletRequest request, final Query query, final PreparedQuery hl_query, final String _table) throws IOException {
+        long start = System.nanoTime();
+        IndexSearcher searcher = Searchers.acquire(_table);
+        if (searcher == null) {
+            log.warn("index of " + _table + " not found, please rebuild it");
+            super.doPage(request, 0, Constants.NUM_PER_PAGE_SEARCH, "_" + _table);
+            request.setAttribute(_table + "_list", new ArrayList<Blog>());
+            return;
+        }
         List<Document> doc_list = new ArrayList<Document>();
-        for (ScoreDoc score_doc : score_docs)
-            doc_list.add(searcher.doc(score_doc.doc));
+        try {
+            TopScoreDocCollector collector = TopScoreDocCollector.create(10000, true);
+            searcher.search(query, collector);
+
+            // 分页
+            super.doPage(request, collector.getTotalHits(), Constants.NUM_PER_PAGE_SEARCH, "_" + _table);
+            log.info("get " + _table + ":" + collector.getTotalHits());
+
+            // 查询当前页的记录
+            int begin = (page_NO - 1) * Constants.NUM_PER_PAGE_SEARCH;
+            begin = begin < 0 ? 0 : begin;
+            ScoreDoc[] score_docs = collector.topDocs(begin, Constants.NUM_PER_PAGE_SEARCH).scoreDocs;
+
+            for (ScoreDoc score_doc : score_docs)
+                doc_list.add(searcher.doc(score_doc.doc));
+        } finally {
+            Searchers.release(searcher);
+            Timers.time(Timers.SEARCH, start);
+        }
 
-        request.setAttribute(_table + "_list", getBlogListFromDocList(query, doc_list));
+        request.setAttribute(_table + "_list", getBlogListFromDocList(hl_query, doc_list));
     }
 
     /**
@@ -138,7 +147,7 @@ public class SearchAction extends BaseAction {
      * @param doc_list
      * @return
      */
-    private List<Blog> getBlogListFromDocList(Query query, List<Document> doc_list) {
+    private List<Blog> getBlogListFromDocList(PreparedQuery query, List<Document> doc_list) {
         List<Blog> blog_list = new ArrayList<Blog>();
         for (Document doc : doc_list) {
             Blog blog = new Blog();
@@ -154,15 +163,15 @@ public class SearchAction extends BaseAction {
                 blog.setTag(tag == null ? data_arr[2] : tag);
             }
 
-            String content = data_arr[1];
-            content = content.replaceAll("<[^>]*>", "");// 除去 HTML 标签
-            // TODO:高亮显示的字数有最大限制，达不到 Constants.LENGTH_OF_SEARCH_CONTENT
-            String f_content = Tools.highlight(query, "title_content_tag", content);
+            // 建索引时已去掉 HTML 标签；旧索引没有 snippet 字段，临时处理一下
+            String content = doc.get(Constants.LUCENE_SNIPPET_FIELD);
+            if (content == null)
+                content = HtmlStripFilter.strip(data_arr[1]);
+            // 摘要，按原文截取，不会截断高亮标签
+            String f_content = Tools.snippet(query, "title_content_tag", content, Constants.LENGTH_OF_SEARCH_CONTENT);
             if (f_content == null)
-                f_content = content;
-
-            if (f_content.length() > Constants.LENGTH_OF_SEARCH_CONTENT)
-                f_content = f_content.substring(0, Constants.LENGTH_OF_SEARCH_CONTENT);
+                f_content = content.length() > Constants.LENGTH_OF_SEARCH_CONTENT
+                        ? content.substring(0, Constants.LENGTH_OF_SEARCH_CONTENT) : content;
             blog.setContent(f_content);
             blog_list.add(blog);
         }
@@ -18,11 +18,16 @@ package com.paladin.action;
 import com.google.common.base.Strings;
 import com.paladin.bean.HFile;
 import com.paladin.common.Constants;
+import com.paladin.common.FileNameIndex;
 import com.paladin.common.Tools;
 import com.paladin.mvc.RequestContext;
-import com.paladin.sys.db.QueryHelper;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopScoreDocCollector;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,34 +42,64 @@ public class SearchfAction extends BaseAction {
     public void index(final RequestContext _reqCtxt) {
         List<HFile> file_list = new ArrayList<HFile>();
         HttpServletRequest request = _reqCtxt.request();
-        int size = 0;
         String q = request.getParameter("q");
+        int total = 0;
 
         if (!Strings.isNullOrEmpty(q)) {
             q = Tools.ISO885912UTF8(q);
             request.setAttribute("q", q);
-            // search from local file system
-            String sql = "SELECT * FROM HFILE WHERE FILENAME LIKE ?";
-            for (String qq : Tools.q2qArr(q)) {
-                for (HFile f : QueryHelper.query(HFile.class, sql, qq))
-                    if (!file_list.contains(f)) {
-                        f.setFileName(f.getFileName().replace(q, Tools.standOutStr(q)));
-                        file_list.add(f);
-                    }
+            String[] terms = FileNameIndex.terms(q);
+
+            try {
+                total = search(request, terms, file_list);
+            } catch (IOException e) {
+                log.error("Failed to search file name index", e);
             }
         }
-        size = file_list.size();
-        {//分页
-            super.doPage(request, file_list.size(), Constants.NUM_PER_PAGE_SEARCH, "_file");
-            int begin = (page_NO - 1) * Constants.NUM_PER_PAGE_SEARCH;
-            begin = begin < 0 ? 0 : begin;
-            int end = page_NO * Constants.NUM_PER_PAGE_SEARCH > file_list.size() ?
-                    file_list.size() : page_NO * Constants.NUM_PER_PAGE_SEARCH;
-            file_list = file_list.subList(begin, end);
-        }
+        if (total == 0)
+            super.doPage(request, 0, Constants.NUM_PER_PAGE_SEARCH, "_file");
         log.info("q = " + q);
-        log.info("get file:" + file_list.size());
+        log.info("get file:" + total);
         request.setAttribute("file_list", file_list);
         forward(_reqCtxt, "/html/search/search_f.jsp");
     }
+
+    /**
+     * 在文件名索引中查找当前页的文件
+     *
+     * @param request
+     * @param _terms    关键字
+     * @param _out      当前页的文件
+     * @return 命中总数
+     * @throws IOException
+     */
+    private int search(final HttpServletRequest request, final String[] _terms, final List<HFile> _out)
+            throws IOException {
+        if (_terms.length == 0)
+            return 0;
+        IndexSearcher searcher = FileNameIndex.acquire();
+        if (searcher == null) {
+            log.warn("file name index not found, please rebuild index of table " + FileNameIndex.TABLE);
+            return 0;
+        }
+        try {
+            // 只收集到请求的页为止，页码不超过索引中文档数的页数，防止收集器过大或溢出
+            int pages = Math.max(1, (searcher.maxDoc() + Constants.NUM_PER_PAGE_SEARCH - 1) / Constants.NUM_PER_PAGE_SEARCH);
+            int page = Math.min(pages, Math.max(1, NumberUtils.toInt(getCurrentPage(request), 1)));
+            TopScoreDocCollector collector = TopScoreDocCollector.create(page * Constants.NUM_PER_PAGE_SEARCH, true);
+            searcher.search(FileNameIndex.query(_terms), collector);
+            int total = collector.getTotalHits();
+
+            super.doPage(request, total, Constants.NUM_PER_PAGE_SEARCH, "_file");
+            int begin = Math.max(0, (page_NO - 1) * Constants.NUM_PER_PAGE_SEARCH);
+            for (ScoreDoc score_doc : collector.topDocs(begin, Constants.NUM_PER_PAGE_SEARCH).scoreDocs) {
+                HFile f = FileNameIndex.toFile(searcher.doc(score_doc.doc));
+                f.setFileName(FileNameIndex.highlight(f.getFileName(), _terms));
+                _out.add(f);
+            }
+            return total;
+        } finally {
+            FileNameIndex.release(searcher);
+        }
+    }
 }
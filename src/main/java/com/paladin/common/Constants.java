@@ -15,8 +15,6 @@
  */
 package com.paladin.common;
 
-import com.paladin.mvc.RequestContext;
-
 import java.io.File;
 
 /**
@@ -62,13 +60,42 @@ public class Constants {
      */
     public static final String LUCENE_FIELD_SEP = "!&%@~~@%&!";
 
+    /**
+     * 索引中 存放 文章 纯文本 的 字段，搜索 结果 的 摘要 从 这里 取
+     */
+    public static final String LUCENE_SNIPPET_FIELD = "snippet";
+
+    /**
+     * 上传 文件 的 最大 字节数
+     */
+    public static final long UPLOAD_MAX_SIZE = 1000000;
+
+    /**
+     * 文章 中 插图 的 最大 显示 宽度，超过时 使用 缩略图
+     */
+    public static final int WIDTH_OF_BLOG_IMAGE = 800;
+
     /**
      * 高亮 样式
      */
     public static final String HIGHLIGHT_STYLE = "<span style='background-color:#ff0;color:#006699'>";
 
     /**
-     * lucene 索引 存储 位置
+     * Web 应用 的 路径(WebRoot/)，由 classes 目录 推算，不依赖 Servlet，命令行 程序 中 也 可以 使用
      */
-    public static final String LUCENE_INDEX_ROOT = RequestContext.root() + "luceneIndex" + File.separatorChar;
+    public static final String WEB_ROOT = webRoot();
+
+    /**
+     * lucene 索引 默认 存储 位置，可在 index.properties 中修改，见 IndexStore
+     */
+    public static final String LUCENE_INDEX_ROOT = WEB_ROOT + "luceneIndex" + File.separatorChar;
+
+    private static String webRoot() {
+        try {
+            String root = Constants.class.getResource("/").toURI().getPath();
+            return new File(root).getParentFile().getParentFile().getCanonicalPath() + File.separator;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.common;
+
+import com.google.common.base.Strings;
+import com.paladin.bean.HFile;
+import com.paladin.sys.db.QueryHelper;
+import com.paladin.sys.lucene.IndexStore;
+import com.paladin.sys.lucene.Searchers;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * HFILE 表的文件名索引
+ * <p/>
+ * 文件名被切分为长度 1~3 的 n-gram，同一起点的 gram 位于同一位置。查询词不超过 3 个字符时直接匹配 gram，
+ * 更长的词用连续 trigram 组成的 PhraseQuery 匹配，结果与 LIKE '%词%' 完全一致，但不必扫描全表。
+ *
+ * @author Erhu
+ */
+public class FileNameIndex {
+
+    private static final Log log = LogFactory.getLog(FileNameIndex.class);
+
+    public static final String TABLE = "hfile";
+    private static final String GRAM = "name_gram";
+    private static final int MAX_GRAM = 3;
+    private static final int BATCH = 10000;// 每次从 HFILE 读取的记录数
+
+    private FileNameIndex() {
+    }
+
+    /**
+     * 从 HFILE 表 重建 索引，按 ID 分批读取，不会一次把整张表读入内存
+     */
+    public static void rebuild() throws IOException {
+        long begin = System.currentTimeMillis();
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_33, new GramAnalyzer());
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        iwc.setRAMBufferSizeMB(64.0);
+        IndexWriter writer = new IndexWriter(IndexStore.open(TABLE), iwc);
+        int count = 0;
+        try {
+            long last_id = 0;
+            String sql = "SELECT ID, FILENAME, FILETYPE, FILEPATH FROM HFILE WHERE ID > ? ORDER BY ID LIMIT ?";
+            while (true) {
+                List<HFile> files = QueryHelper.query(HFile.class, sql, last_id, BATCH);
+                if (files == null || files.isEmpty())
+                    break;
+                for (HFile f : files)
+                    writer.addDocument(toDocument(f));
+                count += files.size();
+                last_id = Long.parseLong(files.get(files.size() - 1).getId());
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        Searchers.refresh(TABLE);
+        log.info("索引 " + count + " 个文件名耗时 " + (System.currentTimeMillis() - begin) + " milliseconds");
+    }
+
+    private static Document toDocument(HFile f) {
+        Document doc = new Document();
+        doc.add(new Field("id", f.getId(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        doc.add(new Field("name", Strings.nullToEmpty(f.getFileName()), Field.Store.YES, Field.Index.NO));
+        doc.add(new Field("type", Strings.nullToEmpty(f.getFileType()), Field.Store.YES,
+                Field.Index.NOT_ANALYZED_NO_NORMS));
+        doc.add(new Field("path", Strings.nullToEmpty(f.getFilePath()), Field.Store.YES, Field.Index.NO));
+        doc.add(new Field(GRAM, Strings.nullToEmpty(f.getFileName()), Field.Store.NO, Field.Index.ANALYZED));
+        return doc;
+    }
+
+    /**
+     * 将 文档 还原为 HFile
+     *
+     * @param _doc
+     * @return
+     */
+    public static HFile toFile(Document _doc) {
+        HFile f = new HFile();
+        f.setId(_doc.get("id"));
+        f.setFileName(_doc.get("name"));
+        f.setFileType(_doc.get("type"));
+        f.setFilePath(_doc.get("path"));
+        return f;
+    }
+
+    /**
+     * 切分 查询 关键字，去掉重复的词，全部转为小写
+     *
+     * @param _q
+     * @return
+     */
+    public static String[] terms(String _q) {
+        Set<String> terms = new LinkedHashSet<String>();
+        for (String t : Tools.compressBlank(_q).split(" "))
+            if (t.length() > 0)
+                terms.add(lower(t));
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * 构造 查询：任一关键字是文件名的子串即命中，命中的关键字越多得分越高
+     *
+     * @param _terms 已转为小写的关键字
+     * @return
+     */
+    public static Query query(String[] _terms) {
+        BooleanQuery query = new BooleanQuery();
+        for (String t : _terms) {
+            if (t.length() <= MAX_GRAM) {
+                query.add(new TermQuery(new Term(GRAM, t)), BooleanClause.Occur.SHOULD);
+            } else {
+                PhraseQuery phrase = new PhraseQuery();
+                for (int i = 0; i + MAX_GRAM <= t.length(); i++)
+                    phrase.add(new Term(GRAM, t.substring(i, i + MAX_GRAM)), i);
+                query.add(phrase, BooleanClause.Occur.SHOULD);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * 高亮 文件名 中 所有 关键字 出现的位置(不区分大小写)
+     *
+     * @param _name
+     * @param _terms 已转为小写的关键字
+     * @return
+     */
+    public static String highlight(String _name, String[] _terms) {
+        String lower = lower(_name);
+        boolean[] marked = new boolean[_name.length()];
+        for (String t : _terms)
+            for (int i = lower.indexOf(t); i >= 0; i = lower.indexOf(t, i + 1))
+                for (int j = i; j < i + t.length() && j < marked.length; j++)
+                    marked[j] = true;
+
+        StringBuilder builder = new StringBuilder();
+        int i = 0;
+        while (i < marked.length) {
+            int j = i;
+            while (j < marked.length && marked[j] == marked[i])
+                j++;
+            String part = _name.substring(i, j);
+            builder.append(marked[i] ? Tools.standOutStr(part) : part);
+            i = j;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 逐字符转为小写，保证长度不变，与索引时的处理一致
+     */
+    private static String lower(String _str) {
+        char[] chars = _str.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(chars[i]);
+        return new String(chars);
+    }
+
+    /**
+     * 获取 searcher，用完后必须调用 {@link #release(IndexSearcher)}
+     *
+     * @return 索引尚未建立时返回 null
+     */
+    public static IndexSearcher acquire() throws IOException {
+        return Searchers.acquire(TABLE);
+    }
+
+    public static void release(IndexSearcher _searcher) throws IOException {
+        Searchers.release(_searcher);
+    }
+
+    /**
+     * 将文件名切分为 1~3 个字符的 gram，起点相同的 gram 位于同一位置
+     */
+    static class GramAnalyzer extends Analyzer {
+        @Override
+        public TokenStream tokenStream(String fieldName, Reader reader) {
+            return new GramTokenizer(reader);
+        }
+
+        @Override
+        public TokenStream reusableTokenStream(String fieldName, Reader reader) throws IOException {
+            GramTokenizer tokenizer = (GramTokenizer) getPreviousTokenStream();
+            if (tokenizer == null) {
+                tokenizer = new GramTokenizer(reader);
+                setPreviousTokenStream(tokenizer);
+            } else
+                tokenizer.reset(reader);
+            return tokenizer;
+        }
+    }
+
+    static final class GramTokenizer extends Tokenizer {
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+        private final PositionIncrementAttribute posAtt = addAttribute(PositionIncrementAttribute.class);
+        private final StringBuilder text = new StringBuilder();
+        private boolean loaded;
+        private int start;
+        private int size;
+
+        GramTokenizer(Reader input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!loaded) {
+                char[] buf = new char[256];
+                for (int n = input.read(buf); n > 0; n = input.read(buf))
+                    text.append(buf, 0, n);
+                for (int i = 0; i < text.length(); i++)
+                    text.setCharAt(i, Character.toLowerCase(text.charAt(i)));
+                loaded = true;
+            }
+            size++;
+            if (size > MAX_GRAM || start + size > text.length()) {
+                start++;
+                size = 1;
+            }
+            if (start + size > text.length())
+                return false;
+
+            clearAttributes();
+            termAtt.setEmpty().append(text, start, start + size);
+            offsetAtt.setOffset(correctOffset(start), correctOffset(start + size));
+            posAtt.setPositionIncrement(size == 1 ? 1 : 0);
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            int end = correctOffset(text.length());
+            offsetAtt.setOffset(end, end);
+        }
+
+        @Override
+        public void reset(Reader input) throws IOException {
+            super.reset(input);
+            reset();
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            text.setLength(0);
+            loaded = false;
+            start = 0;
+            size = 0;
+        }
+    }
+}
@@ -16,6 +16,9 @@
 package com.paladin.common;
 
 import com.paladin.sys.db.QueryHelper;
+import com.paladin.sys.lucene.HtmlStripFilter;
+import com.paladin.sys.lucene.IndexStore;
+import com.paladin.sys.lucene.Searchers;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.analysis.Analyzer;
@@ -25,11 +28,9 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.wltea.analyzer.lucene.IKAnalyzer;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +56,14 @@ public class LuceneHelper {
         Analyzer analyzer = new IKAnalyzer(false);
 
         for (String table : tables) {
+            if (FileNameIndex.TABLE.equalsIgnoreCase(table)) {// 文件名索引总是重建
+                try {
+                    FileNameIndex.rebuild();
+                } catch (IOException e) {
+                    log.error("Failed to rebuild file name index", e);
+                }
+                continue;
+            }
             long begin = System.currentTimeMillis();
 
             IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_33, analyzer);
@@ -63,15 +72,12 @@ public class LuceneHelper {
             else
                 iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
 
-            final String index_dir = Constants.LUCENE_INDEX_ROOT + table;
-            File dir = new File(index_dir);
-            if (!dir.exists())
-                dir.mkdirs();
             try {
-                Directory directory = FSDirectory.open(dir);
+                Directory directory = IndexStore.open(table);
                 IndexWriter writer = new IndexWriter(directory, iwc);
                 indexTable(writer, table);
                 writer.close();
+                Searchers.refresh(table);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -96,21 +102,27 @@ public class LuceneHelper {
             Document doc = new Document();
             Field id_field = new Field("id", blog.get("ID").toString(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS);
 
+            // 文章内容只在这里去一次 HTML 标签，标签不进索引，搜索时直接使用纯文本
+            String content = HtmlStripFilter.strip(String.valueOf(blog.get("CONTENT")));
+
             // 将三个字段合并加索引，方便检索时分页
             StringBuilder builder = new StringBuilder();
             if (table.equalsIgnoreCase("motto"))
-                builder.append(blog.get("CONTENT"));
+                builder.append(content);
             else
                 builder.append(blog.get("TITLE"));
             builder.append(Constants.LUCENE_FIELD_SEP);
-            builder.append(blog.get("CONTENT"));
+            builder.append(content);
             builder.append(Constants.LUCENE_FIELD_SEP);
             builder.append(blog.get("TAG"));
 
             Field t_c_t_field = new Field("title_content_tag", builder.toString(), Field.Store.YES, Field.Index.ANALYZED);
 
+            Field snippet_field = new Field(Constants.LUCENE_SNIPPET_FIELD, content, Field.Store.YES, Field.Index.NO);
+
             doc.add(id_field);
             doc.add(t_c_t_field);
+            doc.add(snippet_field);
 
             if (writer.getConfig().getOpenMode() == IndexWriterConfig.OpenMode.CREATE)
                 writer.addDocument(doc);
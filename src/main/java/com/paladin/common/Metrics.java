@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.common;
+
+import com.paladin.mvc.TimingFilter;
+import com.paladin.sys.cache.CacheManager;
+import com.paladin.sys.cache.MemoryCache;
+import com.paladin.sys.db.DBManager;
+import com.paladin.sys.lucene.Searchers;
+
+import java.io.PrintWriter;
+import java.lang.management.*;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行 指标
+ * <p/>
+ * 每次查看时从 JVM 的 MXBean、连接池、Searchers、缓存和 TimingFilter 的计数器读取当前值，
+ * 这些计数器平时只做原子加法，读取时不需要加锁。{@link #write(PrintWriter)} 输出 Prometheus 的文本格式，
+ * 本机的采集程序可以定时抓取 /admin/metrics 画图；计数器(_total)是启动以来的累计值，速率由采集端计算。
+ *
+ * @author Erhu
+ */
+public class Metrics {
+
+    // 指标名 -> 类型和各个值，同名的值要连续输出
+    private final Map<String, String> types = new LinkedHashMap<String, String>();
+    private final Map<String, List<Sample>> samples = new LinkedHashMap<String, List<Sample>>();
+
+    /**
+     * 收集 当前 的 指标
+     */
+    public static Metrics collect() {
+        Metrics m = new Metrics();
+        m.jvm();
+        m.db();
+        m.lucene();
+        m.cache();
+        m.requests();
+        return m;
+    }
+
+    private void jvm() {
+        add("process_uptime_seconds", "gauge", "", ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String l = label("gc", gc.getName());
+            add("jvm_gc_collections_total", "counter", l, gc.getCollectionCount());
+            add("jvm_gc_pause_seconds_total", "counter", l, gc.getCollectionTime() / 1000.0);
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory("heap", memory.getHeapMemoryUsage());
+        memory("nonheap", memory.getNonHeapMemoryUsage());
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String l = label("pool", pool.getName()) + "," + label("area",
+                    pool.getType() == MemoryType.HEAP ? "heap" : "nonheap");
+            MemoryUsage usage = pool.getUsage();
+            add("jvm_memory_pool_used_bytes", "gauge", l, usage.getUsed());
+            add("jvm_memory_pool_max_bytes", "gauge", l, usage.getMax());
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Map<Thread.State, Integer> states = new EnumMap<Thread.State, Integer>(Thread.State.class);
+        for (Thread.State s : Thread.State.values())
+            states.put(s, 0);
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds()))
+            if (info != null)
+                states.put(info.getThreadState(), states.get(info.getThreadState()) + 1);
+        for (Map.Entry<Thread.State, Integer> e : states.entrySet())
+            add("jvm_threads", "gauge", label("state", e.getKey().name().toLowerCase()), e.getValue());
+        add("jvm_threads_daemon", "gauge", "", threads.getDaemonThreadCount());
+        add("jvm_threads_peak", "gauge", "", threads.getPeakThreadCount());
+    }
+
+    private void memory(String _area, MemoryUsage _usage) {
+        String l = label("area", _area);
+        add("jvm_memory_used_bytes", "gauge", l, _usage.getUsed());
+        add("jvm_memory_committed_bytes", "gauge", l, _usage.getCommitted());
+        add("jvm_memory_max_bytes", "gauge", l, _usage.getMax());
+    }
+
+    private void db() {
+        Map<String, Long> pool = DBManager.poolStats();
+        if (pool.containsKey("leased")) {
+            add("db_pool_leased", "gauge", "", pool.get("leased"));
+            add("db_pool_max", "gauge", "", pool.get("max"));
+        }
+        add("db_pool_requests_total", "counter", "", pool.get("requested"));
+        add("db_pool_failures_total", "counter", "", pool.get("failed"));
+        add("db_pool_wait_seconds_total", "counter", "", pool.get("waitNanos") / 1e9);
+        add("db_pool_wait_max_seconds", "gauge", "", pool.get("maxWaitNanos") / 1e9);
+    }
+
+    private void lucene() {
+        add("lucene_searchers_in_use", "gauge", "", Searchers.inUse());
+        for (Map.Entry<String, Map<String, Long>> e : Searchers.stats().entrySet()) {
+            String l = label("table", e.getKey());
+            add("lucene_searcher_generation", "gauge", l, e.getValue().get("generation"));
+            add("lucene_searcher_version", "gauge", l, e.getValue().get("version"));
+            add("lucene_searcher_docs", "gauge", l, e.getValue().get("docs"));
+            add("lucene_searcher_refs", "gauge", l, e.getValue().get("refs"));
+        }
+    }
+
+    private void cache() {
+        for (MemoryCache cache : CacheManager.regions()) {
+            String l = label("region", cache.getRegion());
+            add("cache_hits_total", "counter", l, cache.hits());
+            add("cache_misses_total", "counter", l, cache.misses());
+            add("cache_entries", "gauge", l, cache.size());
+        }
+    }
+
+    private void requests() {
+        add("http_requests_total", "counter", "", TimingFilter.requests());
+        add("http_request_errors_total", "counter", "", TimingFilter.errors());
+        add("http_requests_active", "gauge", "", TimingFilter.active());
+        for (Map.Entry<String, TimingFilter.RouteStats> e : TimingFilter.routes().entrySet()) {
+            String l = label("route", e.getKey());
+            TimingFilter.RouteStats s = e.getValue();
+            add("http_route_requests_total", "counter", l, s.getCount());
+            add("http_route_latency_ms", "gauge", l + "," + label("quantile", "0.5"), s.getP50());
+            add("http_route_latency_ms", "gauge", l + "," + label("quantile", "0.95"), s.getP95());
+            add("http_route_latency_ms", "gauge", l + "," + label("quantile", "0.99"), s.getP99());
+        }
+    }
+
+    private void add(String _name, String _type, String _labels, double _value) {
+        List<Sample> list = samples.get(_name);
+        if (list == null) {
+            list = new ArrayList<Sample>();
+            samples.put(_name, list);
+            types.put(_name, _type);
+        }
+        list.add(new Sample(_name, _labels, _value));
+    }
+
+    private static String label(String _name, String _value) {
+        return _name + "=\"" + _value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    public List<Sample> getSamples() {
+        List<Sample> all = new ArrayList<Sample>();
+        for (List<Sample> list : samples.values())
+            all.addAll(list);
+        return all;
+    }
+
+    /**
+     * 输出 Prometheus 的 文本 格式
+     *
+     * @param _out
+     */
+    public void write(PrintWriter _out) {
+        for (Map.Entry<String, List<Sample>> e : samples.entrySet()) {
+            _out.print("# TYPE " + e.getKey() + " " + types.get(e.getKey()) + "\n");
+            for (Sample s : e.getValue())
+                _out.print(s + "\n");
+        }
+    }
+
+    /**
+     * 一个 指标 值
+     */
+    public static class Sample {
+        private final String name;
+        private final String labels;
+        private final double value;
+
+        Sample(String name, String labels, double value) {
+            this.name = name;
+            this.labels = labels;
+            this.value = value;
+        }
+
+        public String getName() {
+            return labels.length() == 0 ? name : name + "{" + labels + "}";
+        }
+
+        public String getValue() {
+            return value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long) value)
+                    : String.valueOf(value);
+        }
+
+        @Override
+        public String toString() {
+            return getName() + " " + getValue();
+        }
+    }
+}
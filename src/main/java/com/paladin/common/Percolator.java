@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.paladin.sys.db.QueryHelper;
+import com.paladin.sys.lucene.HtmlStripFilter;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Version;
+import org.wltea.analyzer.lucene.IKAnalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 订阅 搜索
+ * <p/>
+ * 用户保存的查询在内存中解析好，博文或代码保存后，把这一篇文章放进 MemoryIndex，再用所有查询逐个匹配，
+ * 命中的记录写入 QUERY_HIT 表，用户在"我的订阅"中查看。匹配在后台线程中进行，不影响保存的响应时间，
+ * 也不需要访问主索引。
+ * <p/>
+ * 表在第一次访问数据库时创建，失败时下次再试；类的初始化不访问数据库，启动时数据库不可用也不影响之后使用。
+ *
+ * @author Erhu
+ */
+public class Percolator {
+
+    private static final Log log = LogFactory.getLog(Percolator.class);
+
+    public static final String ALL = "all";// 同时订阅博文和代码
+    private static final String FIELD = "title_content_tag";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("percolator-%d").setDaemon(true).build());
+    private static final Analyzer analyzer = new IKAnalyzer(false);
+    // 每个线程一个 MemoryIndex，匹配下一篇文章前 reset，数组重复使用
+    private static final ThreadLocal<MemoryIndex> indexes = new ThreadLocal<MemoryIndex>() {
+        @Override
+        protected MemoryIndex initialValue() {
+            return new MemoryIndex();
+        }
+    };
+
+    private static final String[] CREATE_TABLES = {
+            "CREATE TABLE IF NOT EXISTS SAVED_QUERY (ID INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                    + "USER_ID INT NOT NULL, QUERY VARCHAR(500) NOT NULL, TARGET VARCHAR(10) NOT NULL, "
+                    + "CREATE_DATE DATETIME)",
+            "CREATE TABLE IF NOT EXISTS QUERY_HIT (ID INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                    + "QUERY_ID INT NOT NULL, USER_ID INT NOT NULL, TARGET VARCHAR(10) NOT NULL, TARGET_ID INT NOT NULL, "
+                    + "TITLE VARCHAR(200), SCORE FLOAT, CREATE_DATE DATETIME, UNIQUE KEY (QUERY_ID, TARGET, TARGET_ID), "
+                    + "KEY (USER_ID))"};
+
+    private static Saved[] saved;// 为 null 时 尚未 载入
+    private static boolean tablesReady;// 在 Percolator.class 的锁内访问
+
+    private Percolator() {
+    }
+
+    /**
+     * 建表，成功后不再执行；数据库不可用时返回 false，下次调用时重试
+     */
+    private static synchronized boolean ensureTables() {
+        if (!tablesReady) {
+            try {
+                boolean ok = true;
+                for (String sql : CREATE_TABLES)
+                    ok = ok && QueryHelper.update(sql) >= 0;
+                tablesReady = ok;
+            } catch (RuntimeException e) {// 数据库不可用时连接为 null，dbutils 抛出 NullPointerException
+                log.warn("Failed to create percolator tables, will retry later: " + e);
+            }
+        }
+        return tablesReady;
+    }
+
+    /**
+     * 保存 订阅
+     *
+     * @param _userId
+     * @param _query  查询语句，语法与站内搜索相同
+     * @param _target blog、code 或 all
+     * @throws ParseException 查询语句有误
+     */
+    public static void register(int _userId, String _query, String _target) throws ParseException {
+        parse(_query);
+        ensureTables();
+        QueryHelper.update("INSERT INTO SAVED_QUERY(USER_ID, QUERY, TARGET, CREATE_DATE) VALUES (?, ?, ?, NOW())",
+                _userId, _query, _target);
+        invalidate();
+    }
+
+    /**
+     * 删除 订阅 及其 命中 记录
+     *
+     * @param _userId
+     * @param _id
+     */
+    public static void remove(int _userId, long _id) {
+        ensureTables();
+        if (QueryHelper.update("DELETE FROM SAVED_QUERY WHERE ID = ? AND USER_ID = ?", _id, _userId) > 0)
+            QueryHelper.update("DELETE FROM QUERY_HIT WHERE QUERY_ID = ?", _id);
+        invalidate();
+    }
+
+    /**
+     * 用户 的 所有 订阅
+     *
+     * @param _userId
+     * @return
+     */
+    public static List<Map<String, Object>> queries(int _userId) {
+        ensureTables();
+        return QueryHelper.queryList("SELECT ID, QUERY, TARGET, CREATE_DATE FROM SAVED_QUERY WHERE USER_ID = ? "
+                + "ORDER BY ID DESC", _userId);
+    }
+
+    /**
+     * 用户 最近 的 命中 记录
+     *
+     * @param _userId
+     * @param _count
+     * @return
+     */
+    public static List<Map<String, Object>> hits(int _userId, int _count) {
+        ensureTables();
+        return QueryHelper.queryList("SELECT H.TARGET, H.TARGET_ID, H.TITLE, H.CREATE_DATE, Q.QUERY FROM QUERY_HIT H, "
+                + "SAVED_QUERY Q WHERE H.QUERY_ID = Q.ID AND H.USER_ID = ? ORDER BY H.ID DESC LIMIT ?", _userId, _count);
+    }
+
+    /**
+     * 在后台用所有订阅匹配刚保存的文章
+     *
+     * @param _target  blog 或 code
+     * @param _id
+     * @param _title
+     * @param _content 可以包含 HTML
+     * @param _tag
+     */
+    public static void percolate(final String _target, final long _id, final String _title, final String _content,
+                                 final String _tag) {
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    match(_target, _id, _title, _content, _tag);
+                } catch (Exception e) {
+                    log.error("Failed to percolate " + _target + " " + _id, e);
+                }
+            }
+        });
+    }
+
+    public static void shutdown() {
+        executor.shutdown();
+    }
+
+    private static void match(String _target, long _id, String _title, String _content, String _tag) {
+        Saved[] queries = load();
+        if (queries.length == 0)
+            return;
+        long begin = System.nanoTime();
+
+        MemoryIndex index = indexes.get();
+        index.reset();
+        StringBuilder text = new StringBuilder();
+        text.append(_title).append(' ').append(HtmlStripFilter.strip(_content)).append(' ').append(_tag);
+        index.addField(FIELD, text.toString(), analyzer);
+
+        List<Object[]> hits = new ArrayList<Object[]>();
+        for (Saved s : queries) {
+            if (!ALL.equals(s.target) && !_target.equals(s.target))
+                continue;
+            float score = index.search(s.query);
+            if (score > 0.0f)
+                hits.add(new Object[]{s.id, s.userId, _target, _id, _title, score});
+        }
+        if (!hits.isEmpty())
+            QueryHelper.batch("INSERT IGNORE INTO QUERY_HIT(QUERY_ID, USER_ID, TARGET, TARGET_ID, TITLE, SCORE, "
+                    + "CREATE_DATE) VALUES (?, ?, ?, ?, ?, ?, NOW())", hits.toArray(new Object[hits.size()][]));
+        log.info("percolate " + _target + " " + _id + " against " + queries.length + " queries: " + hits.size()
+                + " hits in " + (System.nanoTime() - begin) / 1000 + " us");
+    }
+
+    private static synchronized void invalidate() {
+        saved = null;
+    }
+
+    private static synchronized Saved[] load() {
+        Saved[] queries = saved;
+        if (queries != null)
+            return queries;
+        if (!ensureTables())// 数据库不可用，下次再试
+            return new Saved[0];
+        List<Map<String, Object>> rows = QueryHelper.queryList("SELECT ID, USER_ID, QUERY, TARGET FROM SAVED_QUERY");
+        if (rows == null)// 读取失败，下次再试
+            return new Saved[0];
+        List<Saved> list = new ArrayList<Saved>();
+        for (Map<String, Object> row : rows) {
+            try {
+                list.add(new Saved(NumberUtils.toLong((String) row.get("ID")),
+                        NumberUtils.toInt((String) row.get("USER_ID")), (String) row.get("TARGET"),
+                        parse((String) row.get("QUERY"))));
+            } catch (ParseException e) {
+                log.warn("Invalid saved query " + row.get("ID") + ": " + row.get("QUERY"));
+            }
+        }
+        saved = list.toArray(new Saved[list.size()]);
+        return saved;
+    }
+
+    private static Query parse(String _query) throws ParseException {
+        return new QueryParser(Version.LUCENE_33, FIELD, analyzer).parse(_query);
+    }
+
+    /**
+     * 解析好的 订阅
+     */
+    private static class Saved {
+        final long id;
+        final int userId;
+        final String target;
+        final Query query;
+
+        Saved(long id, int userId, String target, Query query) {
+            this.id = id;
+            this.userId = userId;
+            this.target = target;
+            this.query = query;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.paladin.mvc.RequestContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 上传图片的缩略图
+ * <p/>
+ * 宽度按 {@link #BUCKETS} 向上取整，第一次请求时生成，保存在 attached 旁边的 attached_thumb/&lt;宽度&gt;/ 下，
+ * 以后直接使用缓存的文件。原图不比目标宽度大或格式不支持时直接使用原图，并在 attached_thumb/&lt;宽度&gt;.orig/
+ * 下留一个同名的空文件作标记，以后不再读取原图判断。
+ * <p/>
+ * 缩放在固定大小的线程池中进行，等待队列也有上限；同一张缩略图同时只生成一次。
+ * 队列已满或等待超时时返回原图，不让大量首次请求占住请求线程；这时 {@link #cached(String, int)} 返回 false，
+ * 输出时不能让浏览器长时间缓存。
+ *
+ * @author Erhu
+ */
+public class Thumbnails {
+
+    private static final Log log = LogFactory.getLog(Thumbnails.class);
+
+    /**
+     * 缩略图 的 宽度
+     */
+    public static final int[] BUCKETS = {120, 240, 480, 800};
+
+    private static final int QUEUE_SIZE = 16;
+    private static final long WAIT_SECONDS = 10;
+    // 本站的图片，不含 "://" 的地址
+    private static final Pattern ATTACHED_IMG = Pattern.compile("(<img\\b[^>]*?\\bsrc=[\"']?)([^\"'\\s>:]*?)/attached/([^/\"'\\s>]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final File attached = new File(RequestContext.uploadPath());
+    private static final File cache = new File(RequestContext.root(), "attached_thumb");
+
+    private static final ExecutorService executor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+            new ThreadFactoryBuilder().setNameFormat("thumbnail-%d").setDaemon(true).build());
+    // 正在生成的缩略图
+    private static final ConcurrentHashMap<File, Future<File>> pending = new ConcurrentHashMap<File, Future<File>>();
+
+    private Thumbnails() {
+    }
+
+    /**
+     * 不小于 _width 的 最小 宽度
+     *
+     * @param _width
+     * @return
+     */
+    public static int bucket(int _width) {
+        for (int b : BUCKETS)
+            if (_width <= b)
+                return b;
+        return BUCKETS[BUCKETS.length - 1];
+    }
+
+    /**
+     * 取得 缩略图，还没有时生成
+     *
+     * @param _name  attached 下的文件名
+     * @param _width 宽度，必须是 {@link #BUCKETS} 之一
+     * @return 缩略图；原图较小、格式不支持或者暂时无法生成时返回原图；原图不存在时返回 null
+     */
+    public static File get(String _name, int _width) {
+        final File src = new File(attached, _name);
+        if (_name.indexOf('/') >= 0 || _name.indexOf('\\') >= 0 || !src.isFile())
+            return null;
+        final File thumb = thumb(_name, _width);
+        if (current(thumb, src))
+            return thumb;
+        if (current(marker(_name, _width), src))
+            return src;
+
+        final int width = _width;
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+            public File call() throws Exception {
+                try {
+                    return resize(src, thumb, width);
+                } finally {
+                    pending.remove(thumb);
+                }
+            }
+        });
+        Future<File> f = pending.putIfAbsent(thumb, task);
+        if (f == null) {
+            f = task;
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                pending.remove(thumb);
+                log.warn("Thumbnail queue is full, serving " + _name);
+                return src;
+            }
+        }
+        try {
+            return f.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return src;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return src;
+        } catch (ExecutionException e) {
+            log.error("Failed to create thumbnail of " + _name, e.getCause());
+            return src;
+        }
+    }
+
+    /**
+     * 缩略图 或 使用原图 的 结果 是否 已经 缓存，为 false 时 {@link #get(String, int)} 返回的原图只是暂时的
+     *
+     * @param _name
+     * @param _width
+     * @return
+     */
+    public static boolean cached(String _name, int _width) {
+        File src = new File(attached, _name);
+        return current(thumb(_name, _width), src) || current(marker(_name, _width), src);
+    }
+
+    /**
+     * 把 HTML 中 attached 下的图片换成缩略图，用于文章中的插图
+     *
+     * @param _html
+     * @param _width
+     * @return
+     */
+    public static String rewrite(String _html, int _width) {
+        if (_html == null || _html.indexOf("/attached/") < 0)
+            return _html;
+        Matcher m = ATTACHED_IMG.matcher(_html);
+        StringBuffer sb = new StringBuffer(_html.length());
+        while (m.find())
+            m.appendReplacement(sb, Matcher.quoteReplacement(m.group(1) + m.group(2) + "/thumb/" + bucket(_width) + "/"
+                    + m.group(3)));
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    public static void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static File thumb(String _name, int _width) {
+        return new File(new File(cache, String.valueOf(_width)), _name);
+    }
+
+    /**
+     * 使用原图 的 标记，目录名不是数字，不会与缩略图冲突
+     */
+    private static File marker(String _name, int _width) {
+        return new File(new File(cache, _width + ".orig"), _name);
+    }
+
+    private static boolean current(File _file, File _src) {
+        return _file.isFile() && _file.lastModified() >= _src.lastModified();
+    }
+
+    /**
+     * 记下 这个 宽度 使用 原图
+     */
+    private static File useOriginal(File _src, int _width) throws IOException {
+        File marker = marker(_src.getName(), _width);
+        File dir = marker.getParentFile();
+        if (!dir.isDirectory())
+            dir.mkdirs();
+        if (!marker.createNewFile())
+            marker.setLastModified(System.currentTimeMillis());
+        return _src;
+    }
+
+    private static File resize(File _src, File _thumb, int _width) throws IOException {
+        if (current(_thumb, _src))// 排队时已生成
+            return _thumb;
+        BufferedImage img = ImageIO.read(_src);
+        if (img == null || img.getWidth() <= _width)
+            return useOriginal(_src, _width);
+
+        String name = _src.getName();
+        String format = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        if ("jpeg".equals(format))
+            format = "jpg";
+        boolean alpha = !"jpg".equals(format) && !"bmp".equals(format);
+        int height = Math.max(1, (int) ((long) img.getHeight() * _width / img.getWidth()));
+
+        // 每次最多缩小一半，直接缩小很多倍时双线性插值会丢失细节
+        BufferedImage out = img;
+        int w = img.getWidth(), h = img.getHeight();
+        do {
+            w = Math.max(_width, w / 2);
+            h = (w == _width) ? height : Math.max(height, h / 2);
+            out = scale(out, w, h, alpha);
+        } while (w > _width);
+
+        File dir = _thumb.getParentFile();
+        if (!dir.isDirectory())
+            dir.mkdirs();
+        File tmp = File.createTempFile("thumb_", ".tmp", dir);
+        try {
+            if (!ImageIO.write(out, format, tmp))
+                return useOriginal(_src, _width);
+            if (_thumb.exists())
+                _thumb.delete();
+            if (!tmp.renameTo(_thumb))
+                throw new IOException("Failed to rename " + tmp + " to " + _thumb);
+        } finally {
+            if (tmp.exists())
+                tmp.delete();
+        }
+        return _thumb;
+    }
+
+    private static BufferedImage scale(BufferedImage _img, int _w, int _h, boolean _alpha) {
+        BufferedImage out = new BufferedImage(_w, _h, _alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(_img, 0, 0, _w, _h, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.common;
+
+/**
+ * 当前 线程 的 请求 各环节 耗时
+ * <p/>
+ * 由 TimingFilter 开始和结束；数据库、搜索、高亮、页面渲染调用 {@link #time(int, long)} 把耗时累加上去。
+ * 不依赖 Servlet，后台线程和命令行程序(如 IndexDB、HighlightBenchmark)中没有开始计时，调用时直接忽略，
+ * 也不会创建对象。
+ *
+ * @author Erhu
+ */
+public class Timers {
+
+    /**
+     * 计时 的 环节
+     */
+    public final static int DB = 0, SEARCH = 1, HIGHLIGHT = 2, RENDER = 3;
+    public final static String[] NAMES = {"db", "search", "highlight", "render"};
+
+    // 没有初始值，不在计时中的线程 get() 返回 null
+    private final static ThreadLocal<Timers> current = new ThreadLocal<Timers>();
+
+    private final long start = System.nanoTime();
+    private final long[] nanos = new long[NAMES.length];
+    private String route;
+
+    private Timers() {
+    }
+
+    /**
+     * 开始 为 本线程 当前 的 请求 计时
+     *
+     * @return 已经在计时中时返回 null
+     */
+    public static Timers start() {
+        if (current.get() != null)
+            return null;
+        Timers timers = new Timers();
+        current.set(timers);
+        return timers;
+    }
+
+    /**
+     * 结束 计时，清除 本线程 上 的 引用
+     */
+    public void stop() {
+        if (current.get() == this)
+            current.remove();
+    }
+
+    /**
+     * 把 从 _start 到 现在 的 时间 计入 当前 请求 的 某个 环节，不在计时中(如后台线程)时忽略
+     *
+     * @param _timer DB 等
+     * @param _start System.nanoTime() 取得的开始时间
+     */
+    public static void time(int _timer, long _start) {
+        Timers timers = current.get();
+        if (timers != null)
+            timers.nanos[_timer] += System.nanoTime() - _start;
+    }
+
+    /**
+     * 设置 当前 请求 统计 耗时 用 的 路由，如 blog/read，没有设置的请求不统计
+     *
+     * @param _route
+     */
+    public static void route(String _route) {
+        Timers timers = current.get();
+        if (timers != null)
+            timers.route = _route;
+    }
+
+    public String route() {
+        return route;
+    }
+
+    /**
+     * 某个 环节 累计 的 纳秒数
+     */
+    public long get(int _timer) {
+        return nanos[_timer];
+    }
+
+    /**
+     * 开始 计时 到 现在 的 纳秒数
+     */
+    public long elapsed() {
+        return System.nanoTime() - start;
+    }
+}
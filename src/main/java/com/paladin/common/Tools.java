@@ -16,6 +16,7 @@
 package com.paladin.common;
 
 import com.google.common.base.Strings;
+import com.paladin.sys.lucene.HtmlStripFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.highlight.*;
@@ -32,6 +33,9 @@ import java.util.*;
  */
 public class Tools {
 
+    private static final SimpleHTMLFormatter HIGHLIGHT_FORMATTER = new SimpleHTMLFormatter(Constants.HIGHLIGHT_STYLE,
+            "</span>");
+
     /**
      * 压缩字符串中的空白字符
      *
@@ -155,7 +159,7 @@ public class Tools {
     }
 
     public static String[] q2qArr(String _q) {
-        _q = Tools.compressBlank(_q.replaceAll("<[^>]*>", ""));
+        _q = Tools.compressBlank(HtmlStripFilter.strip(_q));
         String[] q_arr = _q.split(" ");
         for (int i = 0; i < q_arr.length; i++)
             q_arr[i] = "%".concat(q_arr[i]).concat("%");
@@ -218,10 +222,22 @@ public class Tools {
      * @return
      */
     public static String highlight(final Query _query, final String _field, final String _content) {
+        return highlight(new PreparedQuery(_query, null), _field, _content);
+    }
+
+    /**
+     * 高亮 显示 搜索 关键字，查询中的关键字已事先提取好，同一次搜索的所有结果共用一个 PreparedQuery
+     *
+     * @param _query
+     * @param _field
+     * @param _content
+     * @return
+     */
+    public static String highlight(final PreparedQuery _query, final String _field, final String _content) {
         // 高亮
+        long start = System.nanoTime();
         Scorer scorer = new QueryScorer(_query);
-        SimpleHTMLFormatter formatter = new SimpleHTMLFormatter(Constants.HIGHLIGHT_STYLE, "</span>");
-        Highlighter hl = new Highlighter(formatter, scorer);
+        Highlighter hl = new Highlighter(HIGHLIGHT_FORMATTER, scorer);
         TokenStream tokens = new IKAnalyzer().tokenStream(_field, new StringReader(_content));
         try {
             return hl.getBestFragment(tokens, _content);
@@ -229,6 +245,35 @@ public class Tools {
             e.printStackTrace();
         } catch (InvalidTokenOffsetsException e) {
             e.printStackTrace();
+        } finally {
+            Timers.time(Timers.HIGHLIGHT, start);
+        }
+        return null;
+    }
+
+    /**
+     * 取得 搜索 结果 的 摘要：约 _length 个字、包含关键字的一段，关键字高亮。
+     * 找到包含全部关键字的一段后就不再继续分词，长文章不必整篇分词
+     *
+     * @param _query
+     * @param _field
+     * @param _content 不含 HTML 的 文本
+     * @param _length  摘要 长度
+     * @return 没有 关键字 时 返回 null
+     */
+    public static String snippet(final PreparedQuery _query, final String _field, final String _content,
+                                 final int _length) {
+        long start = System.nanoTime();
+        Highlighter hl = new Highlighter(HIGHLIGHT_FORMATTER, new QueryScorer(_query));
+        TokenStream tokens = new IKAnalyzer().tokenStream(_field, new StringReader(_content));
+        try {
+            return hl.getBestSnippet(tokens, _content, _length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InvalidTokenOffsetsException e) {
+            e.printStackTrace();
+        } finally {
+            Timers.time(Timers.HIGHLIGHT, start);
         }
         return null;
     }
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.common;
+
+import com.paladin.mvc.RequestContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 保存 上传 的 文件
+ * <p/>
+ * 上传的内容边读边写入上传目录下的临时文件，同时计算 SHA-1，读取时即检查大小，超过限制立刻停止。
+ * 写完后按 "摘要.扩展名" 改名，内容相同的文件已经存在时删除临时文件，直接使用已有的文件，
+ * 因此同一张图片上传多次也只保存一份。临时文件和最终文件在同一目录，改名不需要再复制。
+ *
+ * @author Erhu
+ */
+public class Uploader {
+
+    private static final Log log = LogFactory.getLog(Uploader.class);
+
+    private static final List<String> IMAGE_TYPES = Arrays.asList("gif", "jpg", "jpeg", "png", "bmp");
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Uploader() {
+    }
+
+    /**
+     * 保存 上传 的 图片
+     *
+     * @param _fileName 客户端的文件名，只用来取扩展名
+     * @param _in       上传的内容，不负责关闭
+     * @return 保存后的文件名(相对于上传目录)
+     * @throws RejectedException 扩展名不允许或者文件过大
+     * @throws IOException
+     */
+    public static String saveImage(String _fileName, InputStream _in) throws RejectedException, IOException {
+        String ext = _fileName == null ? "" : _fileName.substring(_fileName.lastIndexOf('.') + 1).toLowerCase();
+        if (!IMAGE_TYPES.contains(ext))
+            throw new RejectedException("上传文件扩展名是不允许的扩展名。");
+        return save(_in, ext, Constants.UPLOAD_MAX_SIZE);
+    }
+
+    /**
+     * 保存 上传 的 文件
+     *
+     * @param _in      上传的内容，不负责关闭
+     * @param _ext     扩展名
+     * @param _maxSize 最大字节数
+     * @return 保存后的文件名(相对于上传目录)
+     * @throws RejectedException 文件过大
+     * @throws IOException
+     */
+    public static String save(InputStream _in, String _ext, long _maxSize) throws RejectedException, IOException {
+        File dir = new File(RequestContext.uploadPath());
+        File tmp = File.createTempFile("upload_", ".tmp", dir);
+        try {
+            MessageDigest digest = sha1();
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buf = new byte[BUFFER_SIZE];
+                long size = 0;
+                for (int n = _in.read(buf); n >= 0; n = _in.read(buf)) {
+                    size += n;
+                    if (size > _maxSize)
+                        throw new RejectedException("上传文件大小超过限制。");
+                    digest.update(buf, 0, n);
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+
+            String name = hex(digest.digest()) + "." + _ext;
+            File file = new File(dir, name);
+            if (file.exists()) {
+                log.info("upload " + name + " already exists");
+                return name;
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            return name;
+        } finally {
+            if (tmp.exists())
+                tmp.delete();
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] _bytes) {
+        char[] chars = new char[_bytes.length * 2];
+        for (int i = 0; i < _bytes.length; i++) {
+            chars[i * 2] = HEX[(_bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[_bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 上传 的 文件 不符合 要求，消息 可以 直接 显示 给 用户
+     */
+    public static class RejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -14,6 +14,11 @@
 package com.paladin.mvc;
 
 import com.google.common.base.Strings;
+import com.paladin.common.Percolator;
+import com.paladin.common.Timers;
+import com.paladin.sys.chat.ChatServer;
+import com.paladin.sys.db.HitCounter;
+import com.paladin.sys.lucene.Searchers;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.logging.Log;
@@ -74,6 +79,8 @@ public final class ActionServlet extends HttpServlet {
             } catch (Exception e) {
                 log.error("Failed to initial action : " + action, e);
             }
+        Searchers.start();// 载入常驻内存的索引
+        ChatServer.start(NumberUtils.toInt(getInitParameter("chat_port"), 8000));
     }
 
     @Override
@@ -89,21 +96,50 @@ public final class ActionServlet extends HttpServlet {
                 //log.error("Unable to destroy action: " + action.getClass().getSimpleName(), e);
             }
         }
+        // 每一步 出错 都 不能 影响 后面 的 清理
+        try {
+            HitCounter.shutdown();// 写入 尚未 保存 的 点击数
+        } catch (Throwable e) {
+            log.error("Failed to shutdown HitCounter", e);
+        }
+        try {
+            Searchers.close();
+        } catch (Throwable e) {
+            log.error("Failed to close Searchers", e);
+        }
+        try {
+            Percolator.shutdown();
+        } catch (Throwable e) {
+            log.error("Failed to shutdown Percolator", e);
+        }
+        try {
+            ChatServer.stop();
+        } catch (Throwable e) {
+            log.error("Failed to stop ChatServer", e);
+        }
         super.destroy();
     }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException,
             IOException {
-        RequestContext.begin(getServletContext(), req, resp);
-        process(RequestContext.get(), false);
+        RequestContext rc = RequestContext.begin(getServletContext(), req, resp);
+        try {
+            process(rc, false);
+        } finally {
+            rc.end();
+        }
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException,
             IOException {
-        RequestContext.begin(getServletContext(), req, resp);
-        process(RequestContext.get(), true);
+        RequestContext rc = RequestContext.begin(getServletContext(), req, resp);
+        try {
+            process(rc, true);
+        } finally {
+            rc.end();
+        }
     }
 
     /**
@@ -156,6 +192,7 @@ public final class ActionServlet extends HttpServlet {
             if (method_of_action == null) {
                 method_of_action = this.getActionMethod(action, "index");
             }
+            Timers.route(parts[0] + "/" + method_of_action.getName());// 按实际调用的方法统计耗时
             
             // 调用Action方法之准备参数
             int arg_c = method_of_action.getParameterTypes().length;// 参数个数
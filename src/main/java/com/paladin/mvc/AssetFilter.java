@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 输出 {@link Assets} 合并好的 js/css(须配置在其他过滤器之前)
+ * <p/>
+ * 文件名带内容摘要，永久缓存；浏览器支持 gzip 时直接输出预先压缩好的内容。其他请求原样放行。
+ *
+ * @author Erhu
+ */
+public class AssetFilter implements Filter {
+
+    private final static String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    @Override
+    public void init(FilterConfig cfg) throws ServletException {
+        Assets.build();
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        String uri = request.getRequestURI().substring(request.getContextPath().length());
+        Assets.Asset asset = Assets.get(uri);
+        if (asset == null) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        response.setHeader("ETag", asset.etag);
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        response.setHeader("Vary", "Accept-Encoding");
+        String inm = request.getHeader("If-None-Match");
+        if (inm != null && inm.contains(asset.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String ae = request.getHeader("Accept-Encoding");
+        byte[] body = asset.plain;
+        if (ae != null && ae.indexOf("gzip") >= 0 && asset.gzip.length < asset.plain.length) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = asset.gzip;
+        }
+        response.setContentType(asset.contentType);
+        response.setContentLength(body.length);
+        if (!"HEAD".equals(request.getMethod()))
+            response.getOutputStream().write(body);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 合并、加摘要、预压缩的 js/css
+ * <p/>
+ * 启动时按 assets.properties 把每组文件合并成一个，文件名加上内容摘要(如 css/site.1a2b3c4d5e.css)，
+ * 同时写出 .gz，内容在内存中保留一份，由 {@link AssetFilter} 输出。内容变化时文件名随之变化，
+ * 因此可以让浏览器永久缓存，不再重新验证。页面中用 {@link #urls(String)} 取得合并后的地址，
+ * 某一组合并失败时取得的是原来的文件列表，页面照常可用。写文件失败只影响前端 Web 服务器，不影响输出。
+ *
+ * @author Erhu
+ */
+public class Assets {
+
+    private static final Log log = LogFactory.getLog(Assets.class);
+    private static final String CONFIG_FILE = "com/paladin/mvc/assets.properties";
+    private static final int HASH_LENGTH = 10;
+    private static final Pattern VERSION = Pattern.compile("[0-9a-f]{" + HASH_LENGTH + "}\\..*");
+
+    // 合并前的名字 -> 资源
+    private static volatile Map<String, Asset> bundles = Collections.emptyMap();
+    // 带摘要的路径 -> 资源
+    private static volatile Map<String, Asset> paths = Collections.emptyMap();
+    // 合并前的名字 -> 源文件地址，合并失败时使用
+    private static volatile Map<String, List<String>> sources = Collections.emptyMap();
+
+    private Assets() {
+    }
+
+    /**
+     * 按配置合并所有资源，重复调用时重新合并
+     */
+    public static synchronized void build() {
+        Properties props = new Properties();
+        InputStream in = Assets.class.getClassLoader().getResourceAsStream(CONFIG_FILE);
+        if (in == null)
+            return;
+        try {
+            props.load(in);
+        } catch (IOException e) {
+            log.error("Unable to load " + CONFIG_FILE, e);
+            return;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+
+        Map<String, Asset> _bundles = new HashMap<String, Asset>();
+        Map<String, Asset> _paths = new HashMap<String, Asset>();
+        Map<String, List<String>> _sources = new HashMap<String, List<String>>();
+        for (String name : props.stringPropertyNames()) {
+            String[] files = StringUtils.split(props.getProperty(name), ", \t");
+            List<String> urls = new ArrayList<String>(files.length);
+            for (String file : files)
+                urls.add("/" + file);
+            _sources.put(name, Collections.unmodifiableList(urls));
+            try {
+                Asset asset = bundle(name, files);
+                _bundles.put(name, asset);
+                _paths.put(asset.path, asset);
+                log.info("asset " + asset.path + ": " + asset.plain.length + " bytes, gzip " + asset.gzip.length);
+            } catch (IOException e) {
+                log.error("Failed to build asset " + name, e);
+            }
+        }
+        sources = _sources;
+        bundles = _bundles;
+        paths = _paths;
+    }
+
+    /**
+     * 页面中引用的地址(不含 contextPath)：合并成功时只有合并后的一个，合并失败时为原来的各个文件，
+     * 不在配置中时为 "/" + _name
+     *
+     * @param _name assets.properties 中的名字，如 css/site.css
+     * @return
+     */
+    public static List<String> urls(String _name) {
+        Asset asset = bundles.get(_name);
+        if (asset != null)
+            return Collections.singletonList(asset.path);
+        List<String> urls = sources.get(_name);
+        return urls != null ? urls : Collections.singletonList("/" + _name);
+    }
+
+    /**
+     * 带摘要的路径对应的资源
+     *
+     * @param _path 不含 contextPath 的 URI
+     * @return
+     */
+    static Asset get(String _path) {
+        return paths.get(_path);
+    }
+
+    private static Asset bundle(String _name, String[] _sources) throws IOException {
+        File root = new File(RequestContext.root());
+        boolean js = _name.endsWith(".js");
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (String src : _sources) {
+            byte[] bytes = FileUtils.readFileToByteArray(new File(root, src));
+            int off = (bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB
+                    && bytes[2] == (byte) 0xBF) ? 3 : 0;// 去掉 BOM
+            buf.write(bytes, off, bytes.length - off);
+            buf.write(js ? ";\n".getBytes("UTF-8") : "\n".getBytes("UTF-8"));
+        }
+        byte[] plain = buf.toByteArray();
+
+        String hash = md5(plain).substring(0, HASH_LENGTH);
+        int dot = _name.lastIndexOf('.');
+        String base = _name.substring(0, dot), ext = _name.substring(dot);
+        String path = base + "." + hash + ext;
+
+        ByteArrayOutputStream gz = new ByteArrayOutputStream(plain.length / 3);
+        GZIPOutputStream out = new GZIPOutputStream(gz) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+        out.write(plain);
+        out.close();
+        byte[] gzip = gz.toByteArray();
+
+        // 写到 WebRoot，前端的 Web 服务器也可以直接使用；旧版本删除。失败时内存中的照样由 AssetFilter 输出
+        File file = new File(root, path);
+        final String prefix = new File(base).getName() + ".";
+        try {
+            File[] olds = file.getParentFile().listFiles();
+            if (olds != null)
+                for (File old : olds) {
+                    String n = old.getName();
+                    if (n.startsWith(prefix) && isVersion(n.substring(prefix.length()), ext)
+                            && !n.startsWith(file.getName()))
+                        old.delete();
+                }
+            FileUtils.writeByteArrayToFile(file, plain);
+            FileUtils.writeByteArrayToFile(new File(root, path + ".gz"), gzip);
+        } catch (IOException e) {
+            log.warn("Unable to write " + file + ", serving it from memory only: " + e);
+        }
+
+        String type = js ? "text/javascript; charset=UTF-8" : "text/css; charset=UTF-8";
+        return new Asset("/" + path, type, plain, gzip, "\"" + hash + "\"");
+    }
+
+    // 如 1a2b3c4d5e.css 或 1a2b3c4d5e.css.gz
+    private static boolean isVersion(String _rest, String _ext) {
+        return VERSION.matcher(_rest).matches() && (_rest.endsWith(_ext) || _rest.endsWith(_ext + ".gz"));
+    }
+
+    private static String md5(byte[] _bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(_bytes);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest)
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 合并后的资源
+     */
+    static class Asset {
+        final String path;
+        final String contentType;
+        final byte[] plain;
+        final byte[] gzip;
+        final String etag;
+
+        Asset(String path, String contentType, byte[] plain, byte[] gzip, String etag) {
+            this.path = path;
+            this.contentType = contentType;
+            this.plain = plain;
+            this.gzip = gzip;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 动态页面的 gzip/deflate 压缩(须配置在页面缓存之前)
+ * <p/>
+ * 先缓存开头的 min-size 字节，页面结束时还不够 min-size 的原样输出；超过后检查类型，文本类型边写边压缩，
+ * 不缓存整个页面，页面调用 flush 时压缩的内容也随之发出。已经设置了 Content-Encoding、Content-Range
+ * 或状态不是 200 的响应不压缩。
+ * <p/>
+ * Deflater 使用本地内存，创建和释放都较慢，压缩完后放回池中给后面的请求使用。
+ * <p/>
+ * 初始化参数：min-size(字节，默认 1024)、level(压缩级别 1-9，默认 6)、pool-size(默认 32)
+ *
+ * @author Erhu
+ */
+public class CompressionFilter implements Filter {
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private int minSize;
+    private int level;
+    private BlockingQueue<Deflater> gzipPool;// nowrap，gzip 的头和尾自己写
+    private BlockingQueue<Deflater> deflatePool;
+
+    @Override
+    public void init(FilterConfig cfg) throws ServletException {
+        minSize = NumberUtils.toInt(cfg.getInitParameter("min-size"), 1024);
+        level = NumberUtils.toInt(cfg.getInitParameter("level"), 6);
+        int poolSize = NumberUtils.toInt(cfg.getInitParameter("pool-size"), 32);
+        gzipPool = new ArrayBlockingQueue<Deflater>(poolSize);
+        deflatePool = new ArrayBlockingQueue<Deflater>(poolSize);
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        String ae = request.getHeader("Accept-Encoding");
+        boolean gzip = ae != null && ae.indexOf("gzip") >= 0;
+        if ((!gzip && (ae == null || ae.indexOf("deflate") < 0)) || "HEAD".equals(request.getMethod())) {
+            chain.doFilter(req, res);
+            return;
+        }
+        CompressionResponse wrapper = new CompressionResponse((HttpServletResponse) res, gzip);
+        try {
+            chain.doFilter(req, wrapper);
+            wrapper.finish();
+        } finally {
+            wrapper.release();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (Deflater d = gzipPool.poll(); d != null; d = gzipPool.poll())
+            d.end();
+        for (Deflater d = deflatePool.poll(); d != null; d = deflatePool.poll())
+            d.end();
+    }
+
+    private Deflater borrow(boolean _gzip) {
+        Deflater d = (_gzip ? gzipPool : deflatePool).poll();
+        return d != null ? d : new Deflater(level, _gzip);
+    }
+
+    private void giveBack(Deflater _d, boolean _gzip) {
+        _d.reset();
+        if (!(_gzip ? gzipPool : deflatePool).offer(_d))
+            _d.end();
+    }
+
+    /**
+     * 文本类型才压缩，图片、压缩包等已经压缩过
+     */
+    private static boolean compressible(String _contentType) {
+        if (_contentType == null)
+            return false;
+        String type = _contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("javascript") || type.contains("json")
+                || type.contains("xml");
+    }
+
+    private static final int BUFFERING = 0, COMPRESSING = 1, PASSTHROUGH = 2;
+
+    /**
+     * 压缩输出的响应
+     */
+    private class CompressionResponse extends HttpServletResponseWrapper {
+        private final boolean gzip;
+        private int state = BUFFERING;
+        private final byte[] head = new byte[minSize];
+        private int count;
+        private String contentLength;// 压缩时不能使用
+        private boolean rangeOrEncoded;
+
+        private Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private byte[] out;
+
+        private ServletOutputStream stream;
+        private PrintWriter writer;
+
+        CompressionResponse(HttpServletResponse response, boolean gzip) {
+            super(response);
+            this.gzip = gzip;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null)
+                throw new IllegalStateException("getWriter() has already been called");
+            if (stream == null)
+                stream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        CompressionResponse.this.write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        CompressionResponse.this.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        CompressionResponse.this.flush();
+                    }
+                };
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null)
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                getOutputStream();
+                writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+                stream = null;
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLength(String.valueOf(len));
+        }
+
+        private void setContentLength(String len) {
+            if (state == PASSTHROUGH)
+                super.setHeader("Content-Length", len);
+            else
+                contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name))
+                setContentLength(value);
+            else {
+                checkHeader(name);
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name))
+                setContentLength(value);
+            else {
+                checkHeader(name);
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if ("Content-Length".equalsIgnoreCase(name))
+                setContentLength(String.valueOf(value));
+            else
+                super.setIntHeader(name, value);
+        }
+
+        private void checkHeader(String name) {
+            if ("Content-Encoding".equalsIgnoreCase(name) || "Content-Range".equalsIgnoreCase(name))
+                rangeOrEncoded = true;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            super.setStatus(sc);
+            if (sc != SC_OK)
+                passthrough();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            count = 0;
+            passthrough();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            count = 0;
+            passthrough();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            count = 0;
+            passthrough();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null)
+                writer.flush();
+            else
+                flush();
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (state == BUFFERING)
+                count = 0;
+            super.resetBuffer();
+        }
+
+        @Override
+        public void reset() {
+            if (state == BUFFERING) {
+                count = 0;
+                contentLength = null;
+                rangeOrEncoded = false;
+            }
+            super.reset();
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (state == BUFFERING) {
+                if (count + len <= head.length) {
+                    System.arraycopy(b, off, head, count, len);
+                    count += len;
+                    return;
+                }
+                start();
+            }
+            if (state == COMPRESSING)
+                deflate(b, off, len);
+            else
+                getResponse().getOutputStream().write(b, off, len);
+        }
+
+        /**
+         * 超过 min-size，决定是否压缩
+         */
+        private void start() throws IOException {
+            if (rangeOrEncoded || !compressible(getContentType()) || isCommitted()) {
+                passthrough();
+                return;
+            }
+            HttpServletResponse res = (HttpServletResponse) getResponse();
+            res.setHeader("Content-Encoding", gzip ? "gzip" : "deflate");
+            res.addHeader("Vary", "Accept-Encoding");
+            deflater = borrow(gzip);
+            out = new byte[8192];
+            state = COMPRESSING;
+            if (gzip)
+                res.getOutputStream().write(GZIP_HEADER);
+            deflate(head, 0, count);
+            count = 0;
+        }
+
+        /**
+         * 不压缩，先写出缓存的内容
+         */
+        private void passthrough() {
+            if (state != BUFFERING)
+                return;
+            state = PASSTHROUGH;
+            if (contentLength != null)
+                super.setHeader("Content-Length", contentLength);
+            if (count > 0) {
+                try {
+                    getResponse().getOutputStream().write(head, 0, count);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                count = 0;
+            }
+        }
+
+        private void deflate(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            if (gzip)
+                crc.update(b, off, len);
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput())
+                drain(Deflater.NO_FLUSH);
+        }
+
+        private void drain(int flush) throws IOException {
+            int n = deflater.deflate(out, 0, out.length, flush);
+            if (n > 0)
+                getResponse().getOutputStream().write(out, 0, n);
+        }
+
+        private void flush() throws IOException {
+            if (state == COMPRESSING) {
+                // SYNC_FLUSH 把已写入的内容全部压缩输出，浏览器可以先显示
+                int n;
+                do {
+                    n = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+                    if (n > 0)
+                        getResponse().getOutputStream().write(out, 0, n);
+                } while (n == out.length);
+                getResponse().flushBuffer();
+            } else if (state == PASSTHROUGH)
+                getResponse().flushBuffer();
+            // BUFFERING 时不足 min-size，不提前提交
+        }
+
+        /**
+         * 页面结束，写出剩余的内容
+         */
+        void finish() throws IOException {
+            if (writer != null)
+                writer.flush();
+            if (state == BUFFERING)
+                passthrough();
+            else if (state == COMPRESSING) {
+                deflater.finish();
+                while (!deflater.finished())
+                    drain(Deflater.NO_FLUSH);
+                ServletOutputStream os = getResponse().getOutputStream();
+                if (gzip) {
+                    writeInt(os, (int) crc.getValue());
+                    writeInt(os, (int) deflater.getBytesRead());
+                }
+                state = PASSTHROUGH;
+                release();
+            }
+        }
+
+        void release() {
+            if (deflater != null) {
+                giveBack(deflater, gzip);
+                deflater = null;
+            }
+        }
+
+        private void writeInt(ServletOutputStream os, int v) throws IOException {
+            os.write(v & 0xff);
+            os.write((v >> 8) & 0xff);
+            os.write((v >> 16) & 0xff);
+            os.write((v >> 24) & 0xff);
+        }
+    }
+}
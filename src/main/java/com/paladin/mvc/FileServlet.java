@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 静态文件下载(上传的图片 /attached/*、音乐 /music_store/*)
+ * <p/>
+ * 文件名不会变化，使用强 ETag(长度 + 修改时间)和较长的 Cache-Control，支持 If-None-Match、If-Modified-Since；
+ * 支持单个 Range 和 If-Range，用于 MP3 的拖动和断点续传，多个区间时返回整个文件。
+ * <p/>
+ * 容器支持 sendfile 时(Tomcat NIO/APR 连接器)把文件交给容器发送，不占用请求线程；
+ * 否则用 FileChannel.transferTo 写到响应流，超过 large-size 的文件同时最多 max-large 个下载，
+ * 其余返回 503。
+ * <p/>
+ * 初始化参数：max-age(秒)、large-size(字节)、max-large
+ *
+ * @author Erhu
+ */
+public class FileServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final Log log = LogFactory.getLog(FileServlet.class);
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private String root;
+    private long maxAge;
+    private long largeSize;
+    private Semaphore largeDownloads;
+
+    @Override
+    public void init() throws ServletException {
+        root = new File(RequestContext.root()).getAbsolutePath();
+        maxAge = NumberUtils.toLong(getInitParameter("max-age"), 86400L);
+        largeSize = NumberUtils.toLong(getInitParameter("large-size"), 1024 * 1024L);
+        largeDownloads = new Semaphore(NumberUtils.toInt(getInitParameter("max-large"), 8));
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+        serve(req, res, false);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+        serve(req, res, true);
+    }
+
+    private void serve(HttpServletRequest req, HttpServletResponse res, boolean body) throws IOException {
+        File file = resolve(req);
+        if (file == null) {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long length = file.length();
+        long lastModified = file.lastModified() / 1000 * 1000;// HTTP 日期只精确到秒
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+        res.setHeader("ETag", etag);
+        res.setDateHeader("Last-Modified", lastModified);
+        long age = maxAge(req, file);
+        res.setHeader("Cache-Control", age > 0 ? "public, max-age=" + age : "no-cache");
+        res.setHeader("Accept-Ranges", "bytes");
+
+        String inm = req.getHeader("If-None-Match");
+        boolean notModified = (inm != null) ? (inm.contains(etag) || inm.trim().equals("*"))
+                : ifModifiedSince(req) >= lastModified;
+        if (notModified) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0, end = length - 1;
+        long[] range = range(req, length, etag, lastModified);
+        if (range != null) {
+            if (range[0] < 0) {// 区间 无效
+                res.setHeader("Content-Range", "bytes */" + length);
+                res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            start = range[0];
+            end = range[1];
+            res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            res.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        long count = end - start + 1;
+
+        String type = getServletContext().getMimeType(file.getName());
+        res.setContentType(type != null ? type : "application/octet-stream");
+        res.setHeader("Content-Length", String.valueOf(count));
+        if (!body || count == 0)
+            return;
+
+        if (Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT))) {
+            req.setAttribute(SENDFILE_FILENAME, file.getAbsolutePath());
+            req.setAttribute(SENDFILE_START, Long.valueOf(start));
+            req.setAttribute(SENDFILE_END, Long.valueOf(end + 1));
+            return;
+        }
+
+        boolean large = count >= largeSize;
+        if (large && !largeDownloads.tryAcquire()) {
+            res.reset();
+            res.setHeader("Retry-After", "30");
+            res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try {
+            transfer(file, start, count, res);
+        } finally {
+            if (large)
+                largeDownloads.release();
+        }
+    }
+
+    private static void transfer(File file, long start, long count, HttpServletResponse res) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            WritableByteChannel out = Channels.newChannel(res.getOutputStream());
+            long pos = start, remaining = count;
+            while (remaining > 0) {
+                long n = channel.transferTo(pos, remaining, out);
+                if (n <= 0)// 文件 被 截短
+                    break;
+                pos += n;
+                remaining -= n;
+            }
+        } catch (IOException e) {// 客户端 中断 下载
+            log.debug("Download aborted: " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 请求的文件，不存在、不在映射的目录(如 WebRoot/attached/)下或在 WEB-INF、META-INF 中时返回 null
+     */
+    protected File resolve(HttpServletRequest req) throws IOException {
+        String servletPath = (String) req.getAttribute("javax.servlet.include.servlet_path");
+        String pathInfo;
+        if (servletPath != null) {
+            pathInfo = (String) req.getAttribute("javax.servlet.include.path_info");
+        } else {
+            servletPath = req.getServletPath();
+            pathInfo = req.getPathInfo();
+        }
+        if (pathInfo == null)
+            return null;
+        String dir = new File(root, servletPath).getCanonicalPath() + File.separator;
+        File file = new File(dir, pathInfo).getCanonicalFile();
+        String path = file.getPath();
+        if (!path.startsWith(dir) || !file.isFile())
+            return null;
+        String upper = path.substring(dir.length() - 1).toUpperCase(Locale.ENGLISH);// 映射目录之下的部分
+        if (upper.contains(File.separator + "WEB-INF" + File.separator)
+                || upper.contains(File.separator + "META-INF" + File.separator))
+            return null;
+        return file;
+    }
+
+    /**
+     * If-Modified-Since 的 时间，没有或格式错误时返回 -1
+     */
+    private static long ifModifiedSince(HttpServletRequest req) {
+        try {
+            return req.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 浏览器 可以 缓存 的 秒数，0 表示每次都要验证
+     */
+    protected long maxAge(HttpServletRequest req, File file) {
+        return maxAge;
+    }
+
+    /**
+     * 解析 Range 头
+     *
+     * @return null 表示返回整个文件；{-1, -1} 表示区间无效；否则为 {start, end}(包含 end)
+     */
+    private static long[] range(HttpServletRequest req, long length, String etag, long lastModified) {
+        String range = req.getHeader("Range");
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0)
+            return null;
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (!ifRange.equals(etag))
+                    return null;
+            } else {
+                try {
+                    if (req.getDateHeader("If-Range") != lastModified)
+                        return null;
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+        long start, end;
+        if (dash == 0) {// 最后 n 个字节
+            long n = NumberUtils.toLong(spec.substring(1), -1);
+            if (n < 0)
+                return null;
+            if (n == 0 || length == 0)
+                return new long[]{-1, -1};
+            start = Math.max(0, length - n);
+            end = length - 1;
+        } else {
+            start = NumberUtils.toLong(spec.substring(0, dash), -1);
+            end = dash == spec.length() - 1 ? length - 1 : NumberUtils.toLong(spec.substring(dash + 1), -1);
+            if (start < 0 || end < 0)
+                return null;
+            if (start >= length || end < start)
+                return new long[]{-1, -1};
+            end = Math.min(end, length - 1);
+        }
+        return new long[]{start, end};
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时 分布
+ * <p/>
+ * 按对数划分区间计数，每个区间比前一个宽 25%，从 0.1 毫秒到约 1 分钟，百分位数在区间内按线性插值估算，
+ * 误差在区间宽度以内。记录只是几次原子加法，不加锁，可以在每个请求中调用。
+ *
+ * @author Erhu
+ */
+public class Histogram {
+
+    private static final double FIRST = 100 * 1000;// 第一个区间的上限(纳秒)
+    private static final double FACTOR = 1.25;
+    private static final double LOG_FACTOR = Math.log(FACTOR);
+    private static final int BUCKETS = 60;// 最后一个区间没有上限
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录 一次 耗时
+     *
+     * @param _nanos 纳秒
+     */
+    public void record(long _nanos) {
+        counts.incrementAndGet(bucket(_nanos));
+        count.incrementAndGet();
+        sum.addAndGet(_nanos);
+        long m;
+        while (_nanos > (m = max.get()) && !max.compareAndSet(m, _nanos)) ;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * 平均 耗时(毫秒)
+     */
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / 1e6 / n;
+    }
+
+    /**
+     * 最大 耗时(毫秒)
+     */
+    public double max() {
+        return max.get() / 1e6;
+    }
+
+    /**
+     * 百分位数(毫秒)
+     *
+     * @param _p 0 到 1 之间，如 0.95
+     */
+    public double percentile(double _p) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += snapshot[i] = counts.get(i);
+        if (total == 0)
+            return 0;
+        double rank = _p * total;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (snapshot[i] == 0 || seen + snapshot[i] < rank) {
+                seen += snapshot[i];
+                continue;
+            }
+            double lower = i == 0 ? 0 : upper(i - 1);
+            double upper = Math.min(i == BUCKETS - 1 ? Double.MAX_VALUE : upper(i), Math.max(lower, max.get()));
+            return (lower + (upper - lower) * (rank - seen) / snapshot[i]) / 1e6;
+        }
+        return max();
+    }
+
+    private static int bucket(long _nanos) {
+        if (_nanos <= FIRST)
+            return 0;
+        int i = (int) Math.ceil(Math.log(_nanos / FIRST) / LOG_FACTOR);
+        return Math.min(i, BUCKETS - 1);
+    }
+
+    private static double upper(int _bucket) {
+        return FIRST * Math.pow(FACTOR, _bucket);
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import com.paladin.common.Timers;
+import com.paladin.sys.cache.CacheManager;
+import com.paladin.sys.db.HitCounter;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 匿名用户的整页缓存（须配置在 sitemesh 之前，缓存的是装饰后的页面）
+ * <p/>
+ * 以 URI + 页面用到的参数(params 初始化参数，默认 p、q)为键，其他参数不影响页面，也不产生新的缓存项；
+ * 状态不是 200 的页面(如不存在的文章)不缓存。Action 通过 {@link #LAST_MODIFIED} 和 {@link #HITS} 两个请求属性告知页面的
+ * 最后修改时间和需要累加点击数的记录，命中缓存时据此返回 304 并继续统计点击。
+ * 实体保存或删除时调用 {@link #evict(String)} 清除相关页面。
+ *
+ * @author Erhu
+ */
+public class PageCacheFilter implements Filter {
+
+    private final static String REGION = "page";
+
+    /**
+     * 请求属性：页面内容的最后修改时间（java.util.Date）
+     */
+    public final static String LAST_MODIFIED = "$PAGE_CACHE_LAST_MODIFIED$";
+
+    /**
+     * 请求属性：命中缓存时需要累加点击数的记录 {表名, ID}
+     */
+    public final static String HITS = "$PAGE_CACHE_HITS$";
+
+    private String[] params = {"p", "q"};
+    private List<String> prefixes = new ArrayList<String>();
+    private List<String> uris = new ArrayList<String>();
+
+    @Override
+    public void init(FilterConfig cfg) throws ServletException {
+        // 以 / 结尾的按前缀匹配，其余按完整路径匹配
+        String includes = cfg.getInitParameter("include");
+        if (includes != null)
+            for (String inc : StringUtils.split(includes, ',')) {
+                inc = inc.trim();
+                if (inc.endsWith("/"))
+                    prefixes.add(inc);
+                else
+                    uris.add(inc);
+            }
+        String names = cfg.getInitParameter("params");
+        if (names != null)
+            params = StringUtils.split(names, ", ");
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!"GET".equals(request.getMethod()) || !isCacheable(path) || isLogin(request)) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        String key = key(request, path);
+        Page page = (Page) CacheManager.get(REGION, key);
+        if (page != null) {
+            Timers.route("pageCache");
+            if (page.hits != null)
+                HitCounter.hit((String) page.hits[0], (Long) page.hits[1]);
+            send(request, response, page);
+            return;
+        }
+
+        CaptureResponse capture = new CaptureResponse(response);
+        chain.doFilter(req, capture);
+        byte[] body = capture.toByteArray();
+
+        if (!capture.cacheable || body.length == 0) {
+            if (body.length > 0)
+                response.getOutputStream().write(body);
+            return;
+        }
+        Date modified = (Date) request.getAttribute(LAST_MODIFIED);
+        page = new Page(body, capture.getContentType(), (modified != null) ? modified.getTime()
+                : System.currentTimeMillis(), (Object[]) request.getAttribute(HITS));
+        CacheManager.set(REGION, key, page);
+        send(request, response, page);
+    }
+
+    @Override
+    public void destroy() {
+        CacheManager.clear(REGION);
+    }
+
+    /**
+     * 清除以 path 开头的所有缓存页面，如 /blog
+     *
+     * @param path
+     */
+    public static void evict(String path) {
+        CacheManager.evictByPrefix(REGION, path);
+    }
+
+    /**
+     * 缓存 的 键：路径 加上 页面 用到 的 参数，参数值经过编码，不会与分隔符混淆
+     */
+    private String key(HttpServletRequest request, String path) {
+        StringBuilder key = new StringBuilder(path);
+        char separator = '?';
+        for (String name : params) {
+            String value = request.getParameter(name);
+            if (value == null)
+                continue;
+            key.append(separator).append(name).append('=');
+            try {
+                key.append(URLEncoder.encode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            separator = '&';
+        }
+        return key.toString();
+    }
+
+    private boolean isCacheable(String path) {
+        if (uris.contains(path))
+            return true;
+        for (String prefix : prefixes)
+            if (path.startsWith(prefix))
+                return true;
+        return false;
+    }
+
+    private static boolean isLogin(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        return session != null && session.getAttribute("user") != null;
+    }
+
+    /**
+     * 输出缓存的页面，客户端的副本仍有效时返回 304
+     */
+    private static void send(HttpServletRequest request, HttpServletResponse response, Page page)
+            throws IOException {
+        response.setHeader("ETag", page.etag);
+        response.setDateHeader("Last-Modified", page.lastModified);
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        String inm = request.getHeader("If-None-Match");
+        boolean notModified = (inm != null) ? inm.contains(page.etag)
+                : ifModifiedSince(request) >= page.lastModified;
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        if (page.contentType != null)
+            response.setContentType(page.contentType);
+        response.setContentLength(page.body.length);
+        response.getOutputStream().write(page.body);
+    }
+
+    /**
+     * If-Modified-Since 的 时间，没有或格式错误时返回 -1
+     */
+    private static long ifModifiedSince(HttpServletRequest req) {
+        try {
+            return req.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 缓存的页面
+     */
+    static class Page {
+        final byte[] body;
+        final String contentType;
+        final long lastModified;// HTTP 日期只精确到秒
+        final String etag;
+        final Object[] hits;
+
+        Page(byte[] body, String contentType, long lastModified, Object[] hits) {
+            this.body = body;
+            this.contentType = contentType;
+            this.lastModified = lastModified / 1000 * 1000;
+            this.hits = hits;
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            this.etag = "\"" + Long.toHexString(this.lastModified) + '-' + Long.toHexString(crc.getValue()) + "\"";
+        }
+    }
+
+    /**
+     * 将输出写入内存，只有状态正常的页面才会被缓存
+     */
+    static class CaptureResponse extends HttpServletResponseWrapper {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        private ServletOutputStream stream;
+        private PrintWriter writer;
+        boolean cacheable = true;
+
+        CaptureResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        byte[] toByteArray() {
+            if (writer != null)
+                writer.flush();
+            return buffer.toByteArray();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null)
+                throw new IllegalStateException("getWriter() has already been called");
+            if (stream == null)
+                stream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        buffer.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        buffer.write(b, off, len);
+                    }
+                };
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (stream != null)
+                throw new IllegalStateException("getOutputStream() has already been called");
+            if (writer == null)
+                writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+            return writer;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            if (sc != SC_OK)
+                cacheable = false;
+            super.setStatus(sc);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            cacheable = false;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            cacheable = false;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            cacheable = false;
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void setContentLength(int len) {
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null)
+                writer.flush();
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (writer != null)
+                writer.flush();
+            buffer.reset();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            resetBuffer();
+        }
+    }
+}
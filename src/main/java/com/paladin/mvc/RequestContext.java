@@ -13,6 +13,8 @@
  */
 package com.paladin.mvc;
 
+import com.paladin.common.Constants;
+import com.paladin.common.Timers;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.logging.Log;
@@ -45,6 +47,10 @@ public class RequestContext {
 
     private final static String UTF_8 = "UTF-8";
 
+    /**
+     * 当前请求的上下文，同一请求内嵌套的 begin() 复用同一个对象；最外层的 end() 把它从线程上移除，
+     * 应用重新部署后容器的线程不会再引用旧的类加载器
+     */
     private final static ThreadLocal<RequestContext> contexts = new ThreadLocal<RequestContext>();
     // private final static boolean isResin;
     private final static String upload_tmp_path;
@@ -56,10 +62,12 @@ public class RequestContext {
     private HttpSession session;
     private HttpServletRequest request;
     private HttpServletResponse response;
-    private Map<String, Cookie> cookies;
+    private final Map<String, Cookie> cookies = new HashMap<String, Cookie>();
+    private boolean cookiesParsed;
+    private int depth;// begin() 的嵌套层数，过滤器和 Servlet 可能先后调用
 
     static {
-        webRoot = getWebRootPath();
+        webRoot = Constants.WEB_ROOT;
         // isResin = _CheckResinVersion();
         // 上传的临时目录
         upload_tmp_path = webRoot + "attached" + File.separator;
@@ -69,39 +77,29 @@ public class RequestContext {
         }
     }
 
-    private final static String getWebRootPath() {
-        String root = "";
-        try {
-            root = RequestContext.class.getResource("/").toURI().getPath().toString();
-            root = new File(root).getParentFile().getParentFile().getCanonicalPath();
-            root += File.separator;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        return root;
-    }
-
     /**
      * 初始化 请求 上下文
+     * <p/>
+     * 同一请求内重复调用（如 URLMappingFilter 之后再到 ActionServlet）时直接复用已有的上下文，
+     * 每次 begin() 都必须有对应的 end()。
      *
      * @param ctx
      * @param req
      * @param res
      */
     public static RequestContext begin(ServletContext ctx, HttpServletRequest req, HttpServletResponse res) {
-        RequestContext rc = new RequestContext();
+        RequestContext rc = contexts.get();
+        if (rc == null) {
+            rc = new RequestContext();
+            contexts.set(rc);
+        }
+        if (rc.depth++ > 0)
+            return rc;
         rc.context = ctx;
         rc.request = req;// _AutoUploadRequest(_AutoEncodingRequest(req));
         rc.response = res;
         rc.response.setCharacterEncoding(UTF_8);
         rc.session = req.getSession(false);
-        rc.cookies = new HashMap<String, Cookie>();
-        Cookie[] cookies = req.getCookies();
-        if (cookies != null)
-            for (Cookie ck : cookies) {
-                rc.cookies.put(ck.getName(), ck);
-            }
-        contexts.set(rc);
         return rc;
     }
 
@@ -115,15 +113,29 @@ public class RequestContext {
     }
 
     /**
-     * 获取当前请求的上下文
+     * 返回 上传 目录(WebRoot/attached/)，对外的 URL 为 /attached/
      *
      * @return
      */
+    public static String uploadPath() {
+        return upload_tmp_path;
+    }
+
+    /**
+     * 获取当前请求的上下文
+     *
+     * @return 不在请求处理中时返回 null
+     */
     public static RequestContext get() {
         return contexts.get();
     }
 
+    /**
+     * 结束 请求，最外层的 end() 负责清理，并把上下文从本线程上移除
+     */
     public void end() {
+        if (depth == 0 || --depth > 0)
+            return;
         String tmpPath = (String) request.getAttribute(TEMP_UPLOAD_PATH_ATTR_NAME);
         if (tmpPath != null) {
             try {
@@ -132,11 +144,6 @@ public class RequestContext {
                 log.fatal("Failed to cleanup upload directory: " + tmpPath, e);
             }
         }
-        this.context = null;
-        this.request = null;
-        this.response = null;
-        this.session = null;
-        this.cookies = null;
         contexts.remove();
     }
 
@@ -194,12 +201,15 @@ public class RequestContext {
 
     public void forward(String uri) {
         RequestDispatcher rd = context.getRequestDispatcher(uri);
+        long start = System.nanoTime();
         try {
             rd.forward(request, response);
         } catch (ServletException e) {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            Timers.time(Timers.RENDER, start);
         }
     }
 
@@ -255,7 +265,20 @@ public class RequestContext {
         return response;
     }
 
+    /**
+     * 获取 cookie，首次调用时才解析请求中的全部 cookie
+     *
+     * @param name
+     * @return
+     */
     public Cookie cookie(String name) {
+        if (!cookiesParsed) {
+            Cookie[] cks = request.getCookies();
+            if (cks != null)
+                for (Cookie ck : cks)
+                    cookies.put(ck.getName(), ck);
+            cookiesParsed = true;
+        }
         return cookies.get(name);
     }
 
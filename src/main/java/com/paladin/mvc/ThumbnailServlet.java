@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import com.paladin.common.Thumbnails;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 上传图片的缩略图：/thumb/&lt;宽度&gt;/&lt;attached 下的文件名&gt;
+ * <p/>
+ * 宽度按 {@link Thumbnails#BUCKETS} 向上取整，缩略图由 {@link Thumbnails} 生成并缓存，输出方式与 FileServlet 相同。
+ * 缩略图暂时无法生成而返回原图时不让浏览器缓存，下次请求再取缩略图。
+ *
+ * @author Erhu
+ */
+public class ThumbnailServlet extends FileServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final String FALLBACK = ThumbnailServlet.class.getName() + ".fallback";
+
+    @Override
+    protected File resolve(HttpServletRequest req) throws IOException {
+        String path = req.getPathInfo();
+        if (path == null)
+            return null;
+        int slash = path.indexOf('/', 1);
+        if (slash < 0)
+            return null;
+        int width = NumberUtils.toInt(path.substring(1, slash), -1);
+        if (width <= 0)
+            return null;
+        String name = path.substring(slash + 1);
+        int bucket = Thumbnails.bucket(width);
+        File file = Thumbnails.get(name, bucket);
+        if (file != null && !Thumbnails.cached(name, bucket))
+            req.setAttribute(FALLBACK, Boolean.TRUE);
+        return file;
+    }
+
+    @Override
+    protected long maxAge(HttpServletRequest req, File file) {
+        return req.getAttribute(FALLBACK) != null ? 0 : super.maxAge(req, file);
+    }
+
+    @Override
+    public void destroy() {
+        Thumbnails.shutdown();
+        super.destroy();
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.mvc;
+
+import com.paladin.common.Timers;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 请求 耗时 统计(须配置在页面缓存之前)
+ * <p/>
+ * 请求开始时在本线程的 Timers 上开始计时，数据库、搜索、高亮、页面渲染各自把耗时累加上去。
+ * 开始输出页面内容时加上 Server-Timing 头，浏览器的开发者工具中可以看到各环节的耗时；
+ * 请求结束后按路由(ActionServlet 设置，如 blog/read)记入耗时分布，在"请求耗时"管理页面查看。
+ * <p/>
+ * 直接输出的页面在开始输出时还没渲染完，头中的 render 只是已经用去的时间；sitemesh 装饰或页面缓存的页面
+ * 在渲染完后才输出，头中的耗时是完整的。
+ *
+ * @author Erhu
+ */
+public class TimingFilter implements Filter {
+
+    private static final int MAX_ROUTES = 200;// ActionServlet 只设置存在的方法，这里再限制一下
+
+    private static final ConcurrentHashMap<String, RouteStats> routes = new ConcurrentHashMap<String, RouteStats>();
+
+    // 全部请求的计数，用于计算吞吐量
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong errors = new AtomicLong();// 状态码 >= 500 或抛出了异常
+    private static final AtomicInteger active = new AtomicInteger();
+
+    @Override
+    public void init(FilterConfig cfg) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException,
+            ServletException {
+        Timers timers = (res instanceof HttpServletResponse) ? Timers.start() : null;
+        if (timers == null) {
+            chain.doFilter(req, res);
+            return;
+        }
+        TimingResponse wrapper = new TimingResponse((HttpServletResponse) res, timers);
+        boolean ok = false;
+        active.incrementAndGet();
+        try {
+            chain.doFilter(req, wrapper);
+            wrapper.serverTiming();
+            ok = wrapper.status < 500;
+        } finally {
+            active.decrementAndGet();
+            requests.incrementAndGet();
+            if (!ok)
+                errors.incrementAndGet();
+            timers.stop();
+            record(timers);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static void record(Timers _timers) {
+        String route = _timers.route();
+        if (route == null)
+            return;
+        RouteStats stats = routes.get(route);
+        if (stats == null) {
+            if (routes.size() >= MAX_ROUTES)
+                return;
+            RouteStats created = new RouteStats();
+            stats = routes.putIfAbsent(route, created);
+            if (stats == null)
+                stats = created;
+        }
+        stats.total.record(_timers.elapsed());
+        for (int i = 0; i < Timers.NAMES.length; i++)
+            stats.timers.addAndGet(i, _timers.get(i));
+    }
+
+    /**
+     * 各路由的统计，按路由排序
+     */
+    public static Map<String, RouteStats> routes() {
+        return new TreeMap<String, RouteStats>(routes);
+    }
+
+    /**
+     * 启动 以来 的 请求数
+     */
+    public static long requests() {
+        return requests.get();
+    }
+
+    /**
+     * 启动 以来 出错 的 请求数
+     */
+    public static long errors() {
+        return errors.get();
+    }
+
+    /**
+     * 正在 处理 的 请求数
+     */
+    public static int active() {
+        return active.get();
+    }
+
+    /**
+     * 清空 各路由 的 统计
+     */
+    public static void reset() {
+        routes.clear();
+    }
+
+    /**
+     * 一个 路由 的 耗时 统计，毫秒
+     */
+    public static class RouteStats {
+        private final Histogram total = new Histogram();
+        private final AtomicLongArray timers = new AtomicLongArray(Timers.NAMES.length);
+
+        public long getCount() {
+            return total.count();
+        }
+
+        public double getMean() {
+            return round(total.mean());
+        }
+
+        public double getP50() {
+            return round(total.percentile(0.50));
+        }
+
+        public double getP95() {
+            return round(total.percentile(0.95));
+        }
+
+        public double getP99() {
+            return round(total.percentile(0.99));
+        }
+
+        public double getMax() {
+            return round(total.max());
+        }
+
+        /**
+         * 各环节 的 平均 耗时，如 db -> 1.2
+         */
+        public Map<String, Double> getTimers() {
+            Map<String, Double> means = new TreeMap<String, Double>();
+            long n = total.count();
+            for (int i = 0; i < Timers.NAMES.length; i++)
+                means.put(Timers.NAMES[i], n == 0 ? 0 : round(timers.get(i) / 1e6 / n));
+            return means;
+        }
+
+        private static double round(double _ms) {
+            return Math.round(_ms * 10) / 10.0;
+        }
+    }
+
+    /**
+     * 在 开始 输出 内容 前 加上 Server-Timing 头
+     */
+    private static class TimingResponse extends HttpServletResponseWrapper {
+        private final Timers timers;
+        private boolean written;
+        private int status = SC_OK;
+
+        TimingResponse(HttpServletResponse response, Timers timers) {
+            super(response);
+            this.timers = timers;
+        }
+
+        void serverTiming() {
+            if (written)
+                return;
+            written = true;
+            if (isCommitted())
+                return;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < Timers.NAMES.length; i++) {
+                long nanos = timers.get(i);
+                if (nanos > 0)
+                    dur(sb, Timers.NAMES[i], nanos);
+            }
+            dur(sb, "total", timers.elapsed());
+            setHeader("Server-Timing", sb.toString());
+        }
+
+        private static void dur(StringBuilder _sb, String _name, long _nanos) {
+            if (_sb.length() > 0)
+                _sb.append(", ");
+            _sb.append(_name).append(";dur=").append(Math.round(_nanos / 1e4) / 100.0);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            serverTiming();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            serverTiming();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            serverTiming();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            serverTiming();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            status = sc;
+            serverTiming();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            status = sc;
+            serverTiming();
+            super.sendError(sc, msg);
+        }
+    }
+}
@@ -36,8 +36,7 @@ public interface Cache {
 	 */
 	public void update(Object key, Object value) throws CacheException;
 
-	@SuppressWarnings("unchecked")
-	public List keys() throws CacheException;
+	public List<Object> keys() throws CacheException;
 
 	/**
 	 * Remove an item from the cache
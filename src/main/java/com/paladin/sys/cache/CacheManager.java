@@ -0,0 +1,114 @@
+package com.paladin.sys.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 缓存助手，按区域存取缓存对象
+ *
+ * @author Winter Lau
+ * @modify Erhu
+ */
+public class CacheManager {
+
+	private final static CacheProvider provider = new MemoryCacheProvider();
+
+	static {
+		provider.start();
+	}
+
+	private CacheManager() {
+	}
+
+	private final static Cache _GetCache(String region, boolean autoCreate) {
+		return provider.buildCache(region, autoCreate);
+	}
+
+	/**
+	 * 获取缓存中的数据
+	 *
+	 * @param region
+	 * @param key
+	 * @return
+	 */
+	public final static Object get(String region, Object key) {
+		if (region == null || key == null)
+			return null;
+		Cache cache = _GetCache(region, false);
+		return (cache != null) ? cache.get(key) : null;
+	}
+
+	/**
+	 * 写入缓存
+	 *
+	 * @param region
+	 * @param key
+	 * @param value
+	 */
+	public final static void set(String region, Object key, Object value) {
+		if (region == null || key == null)
+			return;
+		Cache cache = _GetCache(region, true);
+		if (value == null)
+			cache.remove(key);
+		else
+			cache.put(key, value);
+	}
+
+	/**
+	 * 清除缓存中的某个数据
+	 *
+	 * @param region
+	 * @param key
+	 */
+	public final static void evict(String region, Object key) {
+		Cache cache = _GetCache(region, false);
+		if (cache != null)
+			cache.remove(key);
+	}
+
+	/**
+	 * 清除以 prefix 开头的所有字符串键
+	 *
+	 * @param region
+	 * @param prefix
+	 */
+	public final static void evictByPrefix(String region, String prefix) {
+		Cache cache = _GetCache(region, false);
+		if (cache == null)
+			return;
+		for (Object key : cache.keys())
+			if (key instanceof String && ((String) key).startsWith(prefix))
+				cache.remove(key);
+	}
+
+	/**
+	 * 清空某个区域
+	 *
+	 * @param region
+	 */
+	public final static void clear(String region) {
+		Cache cache = _GetCache(region, false);
+		if (cache != null)
+			cache.clear();
+	}
+
+	/**
+	 * 各缓存区域，用于查看命中率
+	 *
+	 * @return
+	 */
+	public final static Collection<MemoryCache> regions() {
+		if (provider instanceof MemoryCacheProvider)
+			return new ArrayList<MemoryCache>(((MemoryCacheProvider) provider).caches());
+		return Collections.emptyList();
+	}
+
+	/**
+	 * 关闭所有缓存
+	 */
+	public final static void shutdown() {
+		provider.stop();
+	}
+}
@@ -0,0 +1,94 @@
+package com.paladin.sys.cache;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内缓存，超过容量或过期的条目由 MapMaker 自动淘汰
+ *
+ * @author Erhu
+ */
+public class MemoryCache implements Cache {
+
+	private final String region;
+	private final ConcurrentMap<Object, Object> map;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param region
+	 *            缓存区域名称
+	 * @param maxSize
+	 *            最大条目数，小于等于 0 表示不限制
+	 * @param ttl
+	 *            写入后的存活时间(秒)，小于等于 0 表示永不过期
+	 */
+	public MemoryCache(String region, int maxSize, int ttl) {
+		this.region = region;
+		MapMaker maker = new MapMaker();
+		if (maxSize > 0)
+			maker.maximumSize(maxSize);
+		if (ttl > 0)
+			maker.expireAfterWrite(ttl, TimeUnit.SECONDS);
+		this.map = maker.makeMap();
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public Object get(Object key) throws CacheException {
+		if (key == null)
+			return null;
+		Object value = map.get(key);
+		(value != null ? hits : misses).incrementAndGet();
+		return value;
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public void put(Object key, Object value) throws CacheException {
+		if (key == null)
+			return;
+		if (value == null)
+			map.remove(key);
+		else
+			map.put(key, value);
+	}
+
+	public void update(Object key, Object value) throws CacheException {
+		put(key, value);
+	}
+
+	public List<Object> keys() throws CacheException {
+		return new ArrayList<Object>(map.keySet());
+	}
+
+	public void remove(Object key) throws CacheException {
+		if (key != null)
+			map.remove(key);
+	}
+
+	public void clear() throws CacheException {
+		map.clear();
+	}
+
+	public void destroy() throws CacheException {
+		map.clear();
+	}
+}
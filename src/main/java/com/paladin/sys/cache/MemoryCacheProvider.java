@@ -0,0 +1,72 @@
+package com.paladin.sys.cache;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内缓存的提供者，各区域的容量和过期时间在 cache.properties 中配置：
+ *
+ * <pre>
+ * page.size = 2000
+ * page.ttl = 60
+ * </pre>
+ *
+ * @author Erhu
+ */
+public class MemoryCacheProvider implements CacheProvider {
+
+	private final static Log log = LogFactory.getLog(MemoryCacheProvider.class);
+	private final static String CONFIG_FILE = "com/paladin/sys/cache/cache.properties";
+	private final static int DEFAULT_SIZE = 1000;
+
+	private final Properties props = new Properties();
+	private final ConcurrentHashMap<String, MemoryCache> caches = new ConcurrentHashMap<String, MemoryCache>();
+
+	public Cache buildCache(String regionName, boolean autoCreate) throws CacheException {
+		MemoryCache cache = caches.get(regionName);
+		if (cache == null && autoCreate) {
+			int size = NumberUtils.toInt(props.getProperty(regionName + ".size"), DEFAULT_SIZE);
+			int ttl = NumberUtils.toInt(props.getProperty(regionName + ".ttl"), 0);
+			MemoryCache old = caches.putIfAbsent(regionName, new MemoryCache(regionName, size, ttl));
+			cache = (old != null) ? old : caches.get(regionName);
+			if (old == null)
+				log.info("Cache region [" + regionName + "] created, size = " + size + ", ttl = " + ttl);
+		}
+		return cache;
+	}
+
+	/**
+	 * 已创建的缓存区域
+	 */
+	public Collection<MemoryCache> caches() {
+		return caches.values();
+	}
+
+	public void start() throws CacheException {
+		InputStream in = getClass().getClassLoader().getResourceAsStream(CONFIG_FILE);
+		if (in == null)
+			return;
+		try {
+			props.load(in);
+		} catch (Exception e) {
+			throw new CacheException("Unable to load " + CONFIG_FILE, e);
+		} finally {
+			try {
+				in.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
+	public void stop() {
+		for (MemoryCache cache : caches.values())
+			cache.destroy();
+		caches.clear();
+	}
+}
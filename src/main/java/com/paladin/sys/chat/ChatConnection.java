@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.sys.chat;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一个 WebSocket 连接(RFC 6455)
+ * <p/>
+ * 只在 ChatServer 的 IO 线程中使用。先读取 HTTP 握手请求，凭 ticket 确认用户后升级为 WebSocket，
+ * 之后解析客户端的帧。发送队列有上限，连接太慢、队列已满时丢弃最早的消息，
+ * 队列清空后补发一条"错过了 N 条消息"的提示，不让慢的连接占用越来越多的内存。
+ *
+ * @author Erhu
+ */
+class ChatConnection {
+
+    static final int MAX_QUEUE = 64;// 每个连接最多排队的消息数
+    static final int MAX_MESSAGE = 16 * 1024;// 客户端消息的最大字节数
+    private static final int MAX_HANDSHAKE = 8 * 1024;
+    private static final int MAX_ROOM_NAME = 50;
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OP_CONTINUATION = 0x0, OP_TEXT = 0x1, OP_CLOSE = 0x8, OP_PING = 0x9, OP_PONG = 0xA;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    private final ChatServer server;
+
+    private ByteBuffer in = ByteBuffer.allocate(MAX_HANDSHAKE);
+    private boolean upgraded;
+    private boolean closing;// 发送完队列中的内容后关闭
+    private ByteArrayOutputStream fragments;// 分片的消息
+
+    private ByteBuffer current;// 正在发送的帧
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+    private int dropped;
+
+    String nickname;
+    ChatRoom room;
+
+    ChatConnection(ChatServer server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * 可读
+     *
+     * @return false 表示连接已关闭
+     */
+    boolean read() throws IOException {
+        if (channel.read(in) < 0)
+            return false;
+        in.flip();
+        try {
+            return upgraded ? frames() : handshake();
+        } finally {
+            in.compact();
+        }
+    }
+
+    /**
+     * 可写，继续发送队列中的帧
+     */
+    void write() throws IOException {
+        flush();
+    }
+
+    /**
+     * 放入 发送 队列
+     */
+    void send(ByteBuffer _frame) {
+        if (closing)
+            return;
+        if (queue.size() >= MAX_QUEUE) {// 太慢，丢弃最早的一条
+            queue.poll();
+            dropped++;
+        }
+        queue.add(_frame);
+        try {
+            flush();
+        } catch (IOException e) {
+            server.close(this);
+        }
+    }
+
+    private void flush() throws IOException {
+        while (true) {
+            if (current == null) {
+                current = queue.poll();
+                if (current == null && dropped > 0) {
+                    current = textFrame(ChatServer.system("网络较慢，错过了 " + dropped + " 条消息"));
+                    dropped = 0;
+                }
+                if (current == null)
+                    break;
+            }
+            channel.write(current);
+            if (current.hasRemaining()) {// 等待可写
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            current = null;
+        }
+        if (closing) {
+            server.close(this);
+            return;
+        }
+        if (key.isValid())
+            key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private boolean handshake() throws IOException {
+        int end = -1;
+        for (int i = in.position(); i + 3 < in.limit(); i++)
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                end = i + 4;
+                break;
+            }
+        if (end < 0) {
+            if (in.remaining() >= MAX_HANDSHAKE)
+                return false;
+            return true;// 继续读
+        }
+        byte[] bytes = new byte[end - in.position()];
+        in.get(bytes);
+        String[] lines = new String(bytes, "ISO-8859-1").split("\r\n");
+        String[] request = lines[0].split(" ");
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0)
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+        }
+
+        String wsKey = headers.get("sec-websocket-key");
+        if (request.length < 2 || !"GET".equals(request[0]) || wsKey == null
+                || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+            reject("400 Bad Request");
+            return true;
+        }
+        Map<String, String> params = query(request[1]);
+        nickname = server.consume(params.get("ticket"));
+        if (nickname == null) {
+            reject("403 Forbidden");
+            return true;
+        }
+
+        String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept(wsKey) + "\r\n\r\n";
+        upgraded = true;
+        in = ByteBuffer.allocate(Math.max(1024, in.remaining())).put(in);// 握手后可能已经收到的帧
+        in.flip();
+        send(ByteBuffer.wrap(response.getBytes("ISO-8859-1")));
+        String name = params.get("room");
+        room = server.room(name == null || name.length() == 0 ? "lobby" : StringUtils.left(name, MAX_ROOM_NAME));
+        room.join(this);
+        return frames();
+    }
+
+    private void reject(String _status) throws IOException {
+        send(ByteBuffer.wrap(("HTTP/1.1 " + _status + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1")));
+        close();
+    }
+
+    /**
+     * 解析 已 收到 的 帧
+     */
+    private boolean frames() throws IOException {
+        while (!closing && in.remaining() >= 2) {
+            int start = in.position();
+            int b0 = in.get(start) & 0xff, b1 = in.get(start + 1) & 0xff;
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0f;
+            if ((b1 & 0x80) == 0) {// 客户端 的 帧 必须 有 掩码
+                closeWith(1002);
+                return true;
+            }
+            long len = b1 & 0x7f;
+            int header = 2;
+            if (len == 126) {
+                if (in.remaining() < 4)
+                    break;
+                len = in.getShort(start + 2) & 0xffff;
+                header = 4;
+            } else if (len == 127) {
+                if (in.remaining() < 10)
+                    break;
+                len = in.getLong(start + 2);
+                header = 10;
+            }
+            if (len < 0 || len > MAX_MESSAGE) {
+                closeWith(1009);
+                return true;
+            }
+            int total = header + 4 + (int) len;
+            if (in.remaining() < total) {
+                if (in.capacity() < total) {// 放不下一帧，扩大缓冲区
+                    ByteBuffer bigger = ByteBuffer.allocate(total);
+                    bigger.put(in);
+                    bigger.flip();
+                    in = bigger;
+                }
+                break;
+            }
+
+            byte[] mask = new byte[4];
+            for (int i = 0; i < 4; i++)
+                mask[i] = in.get(start + header + i);
+            byte[] payload = new byte[(int) len];
+            for (int i = 0; i < payload.length; i++)
+                payload[i] = (byte) (in.get(start + header + 4 + i) ^ mask[i & 3]);
+            in.position(start + total);
+
+            switch (opcode) {
+                case OP_TEXT:
+                case OP_CONTINUATION:
+                    if (opcode == OP_TEXT)
+                        fragments = new ByteArrayOutputStream();
+                    else if (fragments == null) {
+                        closeWith(1002);
+                        return true;
+                    }
+                    fragments.write(payload);
+                    if (fragments.size() > MAX_MESSAGE) {
+                        closeWith(1009);
+                        return true;
+                    }
+                    if (fin) {
+                        server.message(this, fragments.toString("UTF-8"));
+                        fragments = null;
+                    }
+                    break;
+                case OP_CLOSE:
+                    closeWith(1000);
+                    return true;
+                case OP_PING:
+                    send(frame(OP_PONG, payload));
+                    break;
+                case OP_PONG:
+                    break;
+                default:// 不接受二进制消息
+                    closeWith(1003);
+                    return true;
+            }
+        }
+        return true;
+    }
+
+    private void closeWith(int _code) {
+        send(frame(OP_CLOSE, new byte[]{(byte) (_code >> 8), (byte) _code}));
+        close();
+    }
+
+    /**
+     * 发送完已排队的内容后关闭
+     */
+    void close() {
+        if (closing)
+            return;
+        closing = true;
+        if (current == null && queue.isEmpty())
+            server.close(this);
+    }
+
+    static ByteBuffer textFrame(String _text) {
+        try {
+            return frame(OP_TEXT, _text.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer frame(int _opcode, byte[] _payload) {
+        int len = _payload.length;
+        ByteBuffer frame = ByteBuffer.allocate(len + (len < 126 ? 2 : len <= 0xffff ? 4 : 10));
+        frame.put((byte) (0x80 | _opcode));
+        if (len < 126)
+            frame.put((byte) len);
+        else if (len <= 0xffff) {
+            frame.put((byte) 126);
+            frame.putShort((short) len);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(len);
+        }
+        frame.put(_payload);
+        frame.flip();
+        return frame;
+    }
+
+    private static String accept(String _key) {
+        try {
+            byte[] sha1 = MessageDigest.getInstance("SHA-1").digest((_key + GUID).getBytes("ISO-8859-1"));
+            return base64(sha1);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static String base64(byte[] _bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < _bytes.length; i += 3) {
+            int b = (_bytes[i] & 0xff) << 16;
+            if (i + 1 < _bytes.length)
+                b |= (_bytes[i + 1] & 0xff) << 8;
+            if (i + 2 < _bytes.length)
+                b |= _bytes[i + 2] & 0xff;
+            sb.append(BASE64[(b >> 18) & 63]).append(BASE64[(b >> 12) & 63]);
+            sb.append(i + 1 < _bytes.length ? BASE64[(b >> 6) & 63] : '=');
+            sb.append(i + 2 < _bytes.length ? BASE64[b & 63] : '=');
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, String> query(String _uri) {
+        Map<String, String> params = new HashMap<String, String>();
+        int q = _uri.indexOf('?');
+        if (q < 0)
+            return params;
+        for (String pair : _uri.substring(q + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                try {
+                    params.put(pair.substring(0, eq), java.net.URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                } catch (Exception e) {
+                }
+        }
+        return params;
+    }
+}
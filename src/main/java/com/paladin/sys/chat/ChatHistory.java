@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.sys.chat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一个聊天室最近的消息，新进入的人先看到这些消息
+ * <p/>
+ * 固定大小的环形缓冲区，保存编码好的帧，重放时不再编码。只在 ChatServer 的 IO 线程中使用。
+ * 容量小于 {@link ChatConnection#MAX_QUEUE}，重放时不会挤掉其他消息。
+ *
+ * @author Erhu
+ */
+class ChatHistory {
+
+    static final int CAPACITY = 50;
+
+    private final ByteBuffer[] frames = new ByteBuffer[CAPACITY];
+    private int next;// 下一条写入的位置
+    private int size;
+
+    void add(ByteBuffer _frame) {
+        frames[next] = _frame.asReadOnlyBuffer();
+        next = (next + 1) % CAPACITY;
+        if (size < CAPACITY)
+            size++;
+    }
+
+    /**
+     * 按时间顺序发给 _conn
+     */
+    void replay(ChatConnection _conn) {
+        for (int i = 0; i < size; i++)
+            _conn.send(frames[(next - size + i + CAPACITY) % CAPACITY].duplicate());
+    }
+}
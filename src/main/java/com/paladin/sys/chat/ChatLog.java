@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.sys.chat;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.paladin.sys.db.QueryHelper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 聊天记录 的 延迟 写入
+ * <p/>
+ * IO 线程只把消息放进内存队列，后台线程每隔 {@link #FLUSH_INTERVAL} 秒用批量 INSERT 写入 CHAT_MESSAGE 表，
+ * 聊天不会因为写库而变慢。队列有上限，数据库长时间不可用时丢弃新的消息并记录日志，不会耗尽内存。
+ * 表在第一次写库时创建，启动时数据库不可用也不影响聊天，之后每次写库前重试。
+ *
+ * @author Erhu
+ */
+class ChatLog {
+
+    private static final Log log = LogFactory.getLog(ChatLog.class);
+
+    /**
+     * 写库 间隔(秒)
+     */
+    static final int FLUSH_INTERVAL = 5;
+    private static final int MAX_PENDING = 10000;
+    private static final int BATCH_SIZE = 500;
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS CHAT_MESSAGE ("
+            + "ID INT NOT NULL AUTO_INCREMENT PRIMARY KEY, ROOM VARCHAR(50) NOT NULL, NICKNAME VARCHAR(100) NOT NULL, "
+            + "CONTENT TEXT NOT NULL, CREATE_DATE DATETIME, KEY (ROOM))";
+    private static final String INSERT =
+            "INSERT INTO CHAT_MESSAGE(ROOM, NICKNAME, CONTENT, CREATE_DATE) VALUES (?, ?, ?, ?)";
+
+    private final BlockingQueue<Object[]> pending = new ArrayBlockingQueue<Object[]>(MAX_PENDING);
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("chat-log-%d").setDaemon(true).build());
+    private boolean tableReady;// 在 this 的锁内访问
+
+    ChatLog() {
+        ensureTable();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {// 异常 不能 抛出，否则 定时 任务 会 终止
+                    log.error("Failed to save chat messages", e);
+                }
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 创建 CHAT_MESSAGE 表，失败时返回 false，下次再试
+     */
+    private synchronized boolean ensureTable() {
+        if (!tableReady) {
+            try {
+                tableReady = QueryHelper.update(CREATE_TABLE) >= 0;
+            } catch (RuntimeException e) {// 数据库不可用时连接为 null，dbutils 抛出 NullPointerException
+                log.warn("Failed to create table CHAT_MESSAGE, will retry later: " + e);
+            }
+        }
+        return tableReady;
+    }
+
+    /**
+     * 记录 一条 消息(已转义，与页面显示的一致)，不访问数据库
+     */
+    void add(String _room, String _nickname, String _content) {
+        if (!pending.offer(new Object[]{_room, _nickname, _content, new Timestamp(System.currentTimeMillis())}))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * 最近 的 _count 条 消息，按时间顺序，每行为 {ROOM, NICKNAME, CONTENT}；数据库不可用时返回空的列表
+     */
+    List<String[]> recent(int _count) {
+        List<String[]> messages = new ArrayList<String[]>();
+        if (!ensureTable())
+            return messages;
+        List<Map<String, Object>> rows;
+        try {
+            rows = QueryHelper.queryList("SELECT ROOM, NICKNAME, CONTENT FROM CHAT_MESSAGE ORDER BY ID DESC LIMIT ?",
+                    _count);
+        } catch (RuntimeException e) {
+            log.warn("Failed to load chat history: " + e);
+            return messages;
+        }
+        if (rows == null)
+            return messages;
+        for (Map<String, Object> row : rows)
+            messages.add(new String[]{(String) row.get("ROOM"), (String) row.get("NICKNAME"),
+                    (String) row.get("CONTENT")});
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    synchronized void flush() {
+        int n = dropped.getAndSet(0);
+        if (n > 0)
+            log.error("Chat log queue is full, " + n + " messages were not saved.");
+        if (pending.isEmpty() || !ensureTable())// 表还没有建好时消息留在队列中
+            return;
+        List<Object[]> rows = new ArrayList<Object[]>();
+        while (pending.drainTo(rows, BATCH_SIZE) > 0) {
+            int[] saved;
+            try {
+                saved = QueryHelper.batch(INSERT, rows.toArray(new Object[rows.size()][]));
+            } catch (RuntimeException e) {// 数据库不可用时连接为 null，dbutils 抛出 NullPointerException
+                log.error("Failed to save chat messages", e);
+                saved = null;
+            }
+            if (saved == null) {
+                // 写库失败，放回去下次再写，放不下的只能丢弃
+                for (Object[] row : rows)
+                    if (!pending.offer(row))
+                        dropped.incrementAndGet();
+                log.error("Failed to save chat messages, will retry later.");
+                return;
+            }
+            rows.clear();
+        }
+    }
+
+    /**
+     * 停止后台线程并写入剩余的消息
+     */
+    void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(FLUSH_INTERVAL, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
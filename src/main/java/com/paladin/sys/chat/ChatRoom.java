@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.sys.chat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 聊天室
+ * <p/>
+ * 只在 ChatServer 的 IO 线程中使用，不需要同步。一条消息只编码一次，每个连接得到同一帧的只读副本，
+ * 放入各自的发送队列，不会因为某个连接慢而阻塞其他连接。
+ *
+ * @author Erhu
+ */
+class ChatRoom {
+
+    final String name;
+    private final ChatHistory history;
+    private final Set<ChatConnection> members = new LinkedHashSet<ChatConnection>();
+
+    ChatRoom(String name, ChatHistory history) {
+        this.name = name;
+        this.history = history;
+    }
+
+    void join(ChatConnection _conn) {
+        history.replay(_conn);
+        members.add(_conn);
+        broadcast(ChatConnection.textFrame(ChatServer.system(_conn.nickname + " 进入了聊天室")), _conn);
+        _conn.send(ChatConnection.textFrame(ChatServer.system("当前在线: " + online())));
+    }
+
+    void leave(ChatConnection _conn) {
+        if (members.remove(_conn))
+            broadcast(ChatConnection.textFrame(ChatServer.system(_conn.nickname + " 离开了聊天室")), null);
+    }
+
+    /**
+     * 发给 除 _except 以外 的 所有人
+     *
+     * @param _frame  编码好的帧
+     * @param _except 可以为 null
+     */
+    void broadcast(ByteBuffer _frame, ChatConnection _except) {
+        ByteBuffer frame = _frame.asReadOnlyBuffer();
+        for (ChatConnection conn : members)
+            if (conn != _except)
+                conn.send(frame.duplicate());
+    }
+
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    int size() {
+        return members.size();
+    }
+
+    private String online() {
+        List<String> names = new ArrayList<String>();
+        for (ChatConnection conn : members)
+            names.add(conn.nickname);
+        return names.toString();
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.sys.chat;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 聊天室 服务器
+ * <p/>
+ * 在 Web 应用内部用 NIO 实现的 WebSocket 服务，一个线程处理所有连接，取代原来单独运行的 Node.js 程序。
+ * 用户打开聊天室页面时，ChatAction 用 {@link #ticket(String)} 为 session 中的 user 生成一次性的凭证，
+ * 页面连接 ws://host:port/chat?room=xxx&ticket=xxx，凭证有效才允许进入，昵称取自凭证，不相信客户端。
+ * <p/>
+ * 消息按聊天室分发，每条消息只编码一次；每个连接有自己的有限发送队列，慢的连接只会丢失自己的消息。
+ * <p/>
+ * 每个聊天室最近的消息保存在 {@link ChatHistory} 中，进入时重放；消息由 {@link ChatLog} 在后台批量写库，
+ * 启动时从库中载入最近的消息。
+ *
+ * @author Erhu
+ */
+public class ChatServer implements Runnable {
+
+    private static final Log log = LogFactory.getLog(ChatServer.class);
+
+    private static final long TICKET_TTL = 5 * 60 * 1000L;
+    private static final int MAX_TEXT = 2000;// 一条消息的最大字数
+    private static final int MAX_HISTORIES = 100;// 最多保留多少个聊天室的历史消息
+
+    private static ChatServer instance;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final ConcurrentHashMap<String, Ticket> tickets = new ConcurrentHashMap<String, Ticket>();
+
+    private final int port;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final ChatLog chatLog;
+    private volatile boolean running = true;
+
+    // 以下只在 IO 线程中使用
+    private final Map<String, ChatRoom> rooms = new HashMap<String, ChatRoom>();
+    private final List<ChatConnection> closed = new ArrayList<ChatConnection>();
+    // 聊天室没人时会移除，历史消息单独保存，超过 MAX_HISTORIES 个时丢弃最久没有使用的
+    private final Map<String, ChatHistory> histories = new LinkedHashMap<String, ChatHistory>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChatHistory> eldest) {
+            return size() > MAX_HISTORIES;
+        }
+    };
+
+    private ChatServer(int port) throws IOException {
+        this.port = port;
+        chatLog = new ChatLog();
+        // IO 线程还没有启动，可以直接填充；数据库不可用时没有历史消息，聊天照常
+        for (String[] m : chatLog.recent(MAX_HISTORIES * ChatHistory.CAPACITY))
+            history(m[0]).add(ChatConnection.textFrame(format(m[1], m[2])));
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(port));
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            chatLog.shutdown();
+            throw e;
+        }
+        thread = new Thread(this, "chat-server");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * 启动，端口被占用等情况只记录日志，不影响 Web 应用
+     *
+     * @param _port
+     */
+    public static synchronized void start(int _port) {
+        if (instance != null)
+            return;
+        try {
+            instance = new ChatServer(_port);
+            instance.thread.start();
+            log.info("Chat server listening on port " + _port);
+        } catch (Exception e) {
+            log.error("Failed to start chat server on port " + _port, e);
+        }
+    }
+
+    public static synchronized void stop() {
+        if (instance == null)
+            return;
+        instance.running = false;
+        instance.selector.wakeup();
+        try {
+            instance.thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        instance.chatLog.shutdown();
+        instance = null;
+    }
+
+    /**
+     * 聊天 服务 的 端口，没有启动时返回 -1
+     */
+    public static synchronized int port() {
+        return instance != null ? instance.port : -1;
+    }
+
+    /**
+     * 为 已登录 的 用户 生成 一次性 凭证
+     *
+     * @param _nickname
+     * @return
+     */
+    public static String ticket(String _nickname) {
+        String ticket = Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+        tickets.put(ticket, new Ticket(_nickname, System.currentTimeMillis() + TICKET_TTL));
+        return ticket;
+    }
+
+    /**
+     * 使用 凭证
+     *
+     * @return 转义后的昵称，凭证无效或过期时返回 null
+     */
+    String consume(String _ticket) {
+        if (_ticket == null)
+            return null;
+        Ticket t = tickets.remove(_ticket);
+        return (t != null && t.expires > System.currentTimeMillis()) ? StringEscapeUtils.escapeHtml4(t.nickname) : null;
+    }
+
+    static String system(String _text) {
+        return format("系统消息", _text);
+    }
+
+    private static String format(String _nickname, String _text) {
+        return "[" + _nickname + "]\r\n=> " + _text + "\r\n";
+    }
+
+    public void run() {
+        long lastPurge = System.currentTimeMillis();
+        while (running) {
+            try {
+                selector.select(60 * 1000L);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    try {
+                        if (key.isAcceptable())
+                            accept();
+                        else
+                            process(key);
+                    } catch (RuntimeException e) {// 只关闭出错的连接，不能让选择线程退出
+                        log.error("Chat connection error", e);
+                        if (key.attachment() != null)
+                            close((ChatConnection) key.attachment());
+                    }
+                }
+                leave();
+                long now = System.currentTimeMillis();
+                if (now - lastPurge > 60 * 1000L) {
+                    purge(now);
+                    lastPurge = now;
+                }
+            } catch (IOException e) {
+                log.error("Chat server error", e);
+            }
+        }
+        for (SelectionKey key : selector.keys())
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+            }
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+        log.info("Chat server stopped");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new ChatConnection(this, channel, key));
+    }
+
+    private void process(SelectionKey _key) {
+        ChatConnection conn = (ChatConnection) _key.attachment();
+        try {
+            if (_key.isWritable())
+                conn.write();
+            if (_key.isValid() && _key.isReadable() && !conn.read())
+                close(conn);
+        } catch (IOException e) {
+            close(conn);
+        }
+    }
+
+    /**
+     * 收到 一条 消息，转发给同一聊天室的其他人
+     */
+    void message(ChatConnection _conn, String _text) {
+        _text = _text.trim();
+        if (_text.length() == 0 || _conn.room == null)
+            return;
+        if (_text.length() > MAX_TEXT)
+            _text = _text.substring(0, MAX_TEXT);
+        String content = StringEscapeUtils.escapeHtml4(_text);
+        ByteBuffer frame = ChatConnection.textFrame(format(_conn.nickname, content));
+        _conn.room.broadcast(frame, _conn);
+        history(_conn.room.name).add(frame);
+        chatLog.add(_conn.room.name, _conn.nickname, content);
+    }
+
+    ChatRoom room(String _name) {
+        ChatRoom room = rooms.get(_name);
+        if (room == null) {
+            room = new ChatRoom(_name, history(_name));
+            rooms.put(_name, room);
+        }
+        return room;
+    }
+
+    private ChatHistory history(String _name) {
+        ChatHistory history = histories.get(_name);
+        if (history == null) {
+            history = new ChatHistory();
+            histories.put(_name, history);
+        }
+        return history;
+    }
+
+    /**
+     * 关闭连接，离开聊天室的通知在本轮事件处理完后再发，避免在广播的过程中修改成员
+     */
+    void close(ChatConnection _conn) {
+        _conn.key.cancel();
+        try {
+            _conn.channel.close();
+        } catch (IOException e) {
+        }
+        closed.add(_conn);
+    }
+
+    private void leave() {
+        while (!closed.isEmpty()) {
+            ChatConnection conn = closed.remove(closed.size() - 1);
+            ChatRoom room = conn.room;
+            if (room == null)
+                continue;
+            conn.room = null;
+            room.leave(conn);
+            if (room.isEmpty())
+                rooms.remove(room.name);
+        }
+    }
+
+    private void purge(long _now) {
+        for (Iterator<Ticket> it = tickets.values().iterator(); it.hasNext(); )
+            if (it.next().expires < _now)
+                it.remove();
+    }
+
+    private static class Ticket {
+        final String nickname;
+        final long expires;
+
+        Ticket(String nickname, long expires) {
+            this.nickname = nickname;
+            this.expires = expires;
+        }
+    }
+}
@@ -13,6 +13,7 @@
  */
 package com.paladin.sys.db;
 
+import com.jolbox.bonecp.BoneCPDataSource;
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,6 +28,9 @@ import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 数据库管理
@@ -42,6 +46,12 @@ public class DBManager {
     private static DataSource dataSource;
     private static boolean show_sql = false;
 
+    // 从连接池取连接的统计，只做原子加法，不加锁
+    private static final AtomicLong requested = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong waitNanos = new AtomicLong();
+    private static final AtomicLong maxWaitNanos = new AtomicLong();
+
     static {
         try {
             DbUtils.loadDriver("com.mysql.jdbc.Driver");
@@ -84,15 +94,45 @@ public class DBManager {
         Connection conn = conns.get();
         try {
             if (conn == null || conn.isClosed()) {
-                conn = dataSource.getConnection();
+                long start = System.nanoTime();
+                try {
+                    conn = dataSource.getConnection();
+                } finally {
+                    long wait = System.nanoTime() - start;
+                    requested.incrementAndGet();
+                    waitNanos.addAndGet(wait);
+                    long max;
+                    while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait)) ;
+                }
                 conns.set(conn);
             }
         } catch (Exception e) {
+            failed.incrementAndGet();
             e.printStackTrace();
         }
         return (show_sql && !Proxy.isProxyClass(conn.getClass())) ? new DebugConnection(conn).getConnection() : conn;
     }
 
+    /**
+     * 连接池 的 使用 情况
+     *
+     * @return leased(借出的连接数)、max(最大连接数)、requested(取连接的次数)、failed(失败次数)、
+     *         waitNanos(取连接的总耗时)、maxWaitNanos(最长的一次)
+     */
+    public static Map<String, Long> poolStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        if (dataSource instanceof BoneCPDataSource) {
+            BoneCPDataSource bonecp = (BoneCPDataSource) dataSource;
+            stats.put("leased", (long) bonecp.getTotalLeased());
+            stats.put("max", (long) bonecp.getPartitionCount() * bonecp.getMaxConnectionsPerPartition());
+        }
+        stats.put("requested", requested.get());
+        stats.put("failed", failed.get());
+        stats.put("waitNanos", waitNanos.get());
+        stats.put("maxWaitNanos", maxWaitNanos.get());
+        return stats;
+    }
+
     /**
      * 关闭连接
      */
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2011 Erhu Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.paladin.sys.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 点击数 的 延迟 写入
+ * <p/>
+ * 访问时只在内存中累加，后台线程每隔 {@link #FLUSH_INTERVAL} 秒把各表积累的增量用一条批量 UPDATE 写回数据库，
+ * 应用关闭时调用 {@link #shutdown()} 写入剩余的增量。
+ *
+ * @author Erhu
+ */
+public class HitCounter {
+
+    private static final Log log = LogFactory.getLog(HitCounter.class);
+
+    /**
+     * 写库 间隔(秒)
+     */
+    public static final int FLUSH_INTERVAL = 5;
+
+    /**
+     * 表名 -> (ID -> 未写库的点击数)，计数器创建后不再移除，写库时只清零
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<Long, AtomicInteger>> tables =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Long, AtomicInteger>>();
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("hit-counter-%d").setDaemon(true).build());
+
+    static {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {// 异常 不能 抛出，否则 定时 任务 会 终止
+                    log.error("Failed to flush hits", e);
+                }
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private HitCounter() {
+    }
+
+    /**
+     * 点击数 加 1
+     *
+     * @param _table 表名, BLOG 或 CODE
+     * @param _id    记录 id
+     */
+    public static void hit(final String _table, final long _id) {
+        counter(_table.toUpperCase(), _id).incrementAndGet();
+    }
+
+    /**
+     * 尚未写入数据库的点击数，页面显示时与数据库中的值相加
+     *
+     * @param _table
+     * @param _id
+     * @return
+     */
+    public static int pending(final String _table, final long _id) {
+        Map<Long, AtomicInteger> counters = tables.get(_table.toUpperCase());
+        AtomicInteger c = (counters != null) ? counters.get(_id) : null;
+        return (c != null) ? c.get() : 0;
+    }
+
+    /**
+     * 将积累的点击数写入数据库
+     */
+    public static synchronized void flush() {
+        for (Map.Entry<String, ConcurrentHashMap<Long, AtomicInteger>> table : tables.entrySet()) {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Map.Entry<Long, AtomicInteger> e : table.getValue().entrySet()) {
+                int n = e.getValue().getAndSet(0);
+                if (n > 0)
+                    rows.add(new Object[]{n, e.getKey()});
+            }
+            if (rows.isEmpty())
+                continue;
+
+            String sql = "UPDATE " + table.getKey() + " SET HITS = (HITS + ?) WHERE ID = ?";
+            Object[][] params = rows.toArray(new Object[rows.size()][]);
+            int[] updated;
+            try {
+                updated = QueryHelper.batch(sql, params);
+            } catch (RuntimeException e) {// 数据库不可用时连接为 null，dbutils 抛出 NullPointerException
+                log.error("Failed to flush hits of " + table.getKey(), e);
+                updated = null;
+            }
+            if (updated == null) {// 写库失败，增量放回去下次再写
+                for (Object[] row : rows)
+                    table.getValue().get(row[1]).addAndGet((Integer) row[0]);
+                log.error("Failed to flush hits of " + table.getKey() + ", will retry later.");
+            }
+        }
+    }
+
+    /**
+     * 停止后台线程并写入剩余的点击数
+     */
+    public static void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(FLUSH_INTERVAL, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private static AtomicInteger counter(final String _table, final long _id) {
+        ConcurrentHashMap<Long, AtomicInteger> counters = tables.get(_table);
+        if (counters == null) {
+            ConcurrentHashMap<Long, AtomicInteger> created = new ConcurrentHashMap<Long, AtomicInteger>();
+            counters = tables.putIfAbsent(_table, created);
+            if (counters == null)
+                counters = created;
+        }
+        AtomicInteger c = counters.get(_id);
+        if (c == null) {
+            AtomicInteger created = new AtomicInteger();
+            c = counters.putIfAbsent(_id, created);
+            if (c == null)
+                c = created;
+        }
+        return c;
+    }
+}
@@ -18,15 +18,19 @@
  */
 package com.paladin.sys.db;
 
+import com.paladin.common.Timers;
 import com.paladin.common.Tools;
+import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.handlers.*;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.math.BigInteger;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -96,6 +100,7 @@ public class QueryHelper {
      * @return
      */
     public static <T> T read(Class<T> beanClass, String sql, Object... params) {
+        long start = System.nanoTime();
         try {
             return (T) RUNNER.query(getConnection(), sql, IS_PRIMITIVE(beanClass) ? SCALAR_HANDLER : new BeanHandler(
                     beanClass), params);
@@ -103,6 +108,7 @@ public class QueryHelper {
             e.printStackTrace();
         } finally {
             DBManager.closeConnection();
+            Timers.time(Timers.DB, start);
         }
         return null;
     }
@@ -117,6 +123,7 @@ public class QueryHelper {
      * @return
      */
     public static <T> List<T> query(Class<T> beanClass, String sql, Object... params) {
+        long start = System.nanoTime();
         try {
             return (List<T>) RUNNER.query(getConnection(), sql, IS_PRIMITIVE(beanClass) ? COLUMN_LIST_HANDLER
                     : new BeanListHandler(beanClass), params);
@@ -124,6 +131,7 @@ public class QueryHelper {
             e.printStackTrace();
         } finally {
             DBManager.closeConnection();
+            Timers.time(Timers.DB, start);
         }
         return null;
     }
@@ -156,6 +164,7 @@ public class QueryHelper {
      * @return
      */
     public static long stat(String sql, Object... params) {
+        long start = System.nanoTime();
         try {
             Number num = (Number) RUNNER.query(getConnection(), sql, SCALAR_HANDLER, params);
             return (num != null) ? num.longValue() : -1;
@@ -164,6 +173,7 @@ public class QueryHelper {
             return -1;
         } finally {
             DBManager.closeConnection();
+            Timers.time(Timers.DB, start);
         }
     }
 
@@ -175,12 +185,42 @@ public class QueryHelper {
      * @return
      */
     public static int update(String sql, Object... params) {
+        long start = System.nanoTime();
         try {
             return RUNNER.update(getConnection(), sql, params);
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
             DBManager.closeConnection();
+            Timers.time(Timers.DB, start);
+        }
+        return -1;
+    }
+
+    /**
+     * 执行 INSERT 语句，返回自动生成的主键
+     *
+     * @param sql
+     * @param params
+     * @return 失败时返回 -1
+     */
+    public static long insert(String sql, Object... params) {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        long start = System.nanoTime();
+        try {
+            ps = getConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            RUNNER.fillStatement(ps, params);
+            ps.executeUpdate();
+            rs = ps.getGeneratedKeys();
+            return rs.next() ? rs.getLong(1) : -1;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            DbUtils.closeQuietly(rs);
+            DbUtils.closeQuietly(ps);
+            DBManager.closeConnection();
+            Timers.time(Timers.DB, start);
         }
         return -1;
     }
@@ -193,12 +233,14 @@ public class QueryHelper {
      * @return
      */
     public static int[] batch(String sql, Object[][] params) {
+        long start = System.nanoTime();
         try {
             return RUNNER.batch(getConnection(), sql, params);
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
             DBManager.closeConnection();
+            Timers.time(Timers.DB, start);
         }
         return null;
     }
@@ -217,12 +259,14 @@ public class QueryHelper {
                 return getMapFromRs(__rs);
             }
         };
+        long start = System.nanoTime();
         try {
             return RUNNER.query(getConnection(), _sql, handler, _par);
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
             DBManager.closeConnection();
+            Timers.time(Timers.DB, start);
         }
         return null;
     }
@@ -0,0 +1,297 @@
+package com.paladin.sys.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.out;
+
+/**
+ * 文件内容索引
+ * <p/>
+ * 多个线程并行遍历目录，每个线程读取并分析自己找到的文件，共用一个 IndexWriter。
+ * 索引中已有的文件按 path + modified 判断是否变化，没变的直接跳过，变化的用 updateDocument 替换，
+ * 已经不存在的文件从索引中删除。小文件一次读入线程自己的缓冲区，大文件用内存映射，都按 UTF-8 边读边解码；
+ * 超过 2G(一次内存映射的上限)的文件不索引。单个文件出错时记下后继续处理其他文件。
+ *
+ * @author erhu
+ */
+public class ContentIndexer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAP_THRESHOLD = 1024 * 1024;// 超过 1M 的文件使用内存映射
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    private final IndexWriter writer;
+    private final int threads;
+    private Set<String> suffixes;// 为 null 时索引所有文件
+    private ConcurrentHashMap<String, Long> indexed;// 索引中已有的文件 path -> modified
+
+    private final AtomicInteger added = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private int deleted;
+
+    /**
+     * @param writer  共用的 IndexWriter，OpenMode 为 CREATE 时不检查索引中已有的文件
+     * @param threads 遍历和分析文件的线程数
+     */
+    public ContentIndexer(IndexWriter writer, int threads) {
+        this.writer = writer;
+        this.threads = threads;
+    }
+
+    /**
+     * 只索引这些后缀的文件，如 "txt"
+     */
+    public ContentIndexer accept(String... _suffixes) {
+        suffixes = new HashSet<String>();
+        for (String s : _suffixes)
+            suffixes.add(s.toLowerCase());
+        return this;
+    }
+
+    /**
+     * 索引这些目录下的所有文件，返回时所有文件都已交给 writer，但没有 commit
+     *
+     * @param _roots
+     * @throws IOException
+     */
+    public void index(File... _roots) throws IOException {
+        long begin = System.currentTimeMillis();
+        loadIndexed();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (File root : _roots)
+                pool.invoke(new DirTask(root.toPath()));
+        } catch (IndexException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        // 没有遍历到的文件已被删除
+        for (String path : indexed.keySet()) {
+            for (File root : _roots) {
+                if (Paths.get(path).startsWith(root.toPath())) {
+                    writer.deleteDocuments(new Term("path", path));
+                    deleted++;
+                    break;
+                }
+            }
+        }
+        out.println("added " + added + ", updated " + updated + ", skipped " + skipped + ", deleted " + deleted
+                + ", failed " + failed + " files in " + (System.currentTimeMillis() - begin) + " milliseconds");
+    }
+
+    private void loadIndexed() throws IOException {
+        indexed = new ConcurrentHashMap<String, Long>();
+        if (writer.getConfig().getOpenMode() == OpenMode.CREATE || !IndexReader.indexExists(writer.getDirectory()))
+            return;
+        IndexReader reader = IndexReader.open(writer.getDirectory(), true);
+        try {
+            String[] paths = FieldCache.DEFAULT.getStrings(reader, "path");
+            long[] modified = FieldCache.DEFAULT.getLongs(reader, "modified", FieldCache.NUMERIC_UTILS_LONG_PARSER);
+            for (int i = 0; i < reader.maxDoc(); i++)
+                if (paths[i] != null && !reader.isDeleted(i))
+                    indexed.put(paths[i], modified[i]);
+        } finally {
+            FieldCache.DEFAULT.purge(reader);
+            reader.close();
+        }
+    }
+
+    private boolean accepted(String _name) {
+        if (suffixes == null)
+            return true;
+        int dot = _name.lastIndexOf('.');
+        return dot > 0 && suffixes.contains(_name.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     * 把文件交给 writer，分析在当前线程进行
+     */
+    private void indexFile(Path _file, BasicFileAttributes _attrs) throws IOException {
+        if (_attrs.size() > Integer.MAX_VALUE)// 索引中的旧记录留在 indexed 中，最后会被删除
+            throw new IOException("file is larger than 2G");
+        String path = _file.toString();
+        long modified = _attrs.lastModifiedTime().toMillis();
+        Long old = indexed.remove(path);
+        if (old != null && old == modified) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        Document doc = new Document();
+        Field pathField = new Field("path", path, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS);
+        pathField.setOmitTermFreqAndPositions(true);
+        doc.add(pathField);
+        doc.add(new NumericField("modified", Field.Store.YES, true).setLongValue(modified));
+
+        NioReader reader;
+        try {
+            reader = new NioReader(_file, _attrs.size());
+        } catch (IOException e) {// 无法读取的文件(如 windows 下的临时文件)直接跳过
+            return;
+        }
+        doc.add(new Field("contents", reader));
+        try {
+            if (old == null) {
+                writer.addDocument(doc);
+                added.incrementAndGet();
+            } else {
+                writer.updateDocument(new Term("path", path), doc);
+                updated.incrementAndGet();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void failed(Path _file, Exception _e) {
+        failed.incrementAndGet();
+        System.err.println("failed to index " + _file + ": " + _e);
+    }
+
+    /**
+     * 遍历一个目录，子目录拆分为新的任务
+     */
+    private class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+
+        DirTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            final List<DirTask> children = new ArrayList<DirTask>();
+            try {
+                // 深度为 1 时，目录下的每一项(包括子目录)都会连同属性一起交给 visitFile
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (attrs.isDirectory())
+                            children.add(new DirTask(file));
+                        else if (attrs.isRegularFile() && accepted(file.getFileName().toString())) {
+                            try {
+                                indexFile(file, attrs);
+                            } catch (IOException e) {
+                                failed(file, e);
+                            } catch (RuntimeException e) {
+                                failed(file, e);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                throw new IndexException(e);
+            }
+            invokeAll(children);
+        }
+    }
+
+    /**
+     * 在任务中抛出 IOException 的包装
+     */
+    private static class IndexException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        IndexException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * 用 NIO 读取文件的 Reader：小文件读入线程自己的缓冲区，大文件用内存映射，读取时逐段解码
+     */
+    static final class NioReader extends Reader {
+        private final CharsetDecoder decoder = UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer bytes;
+        private boolean flushed;
+
+        NioReader(Path _file, long _size) throws IOException {
+            FileChannel channel = FileChannel.open(_file, StandardOpenOption.READ);
+            try {
+                if (_size > MAP_THRESHOLD) {
+                    bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, _size);
+                } else {
+                    bytes = buffers.get();
+                    if (bytes == null || bytes.capacity() < _size) {
+                        bytes = ByteBuffer.allocate((int) Math.max(_size, 64 * 1024));
+                        buffers.set(bytes);
+                    }
+                    bytes.clear();
+                    bytes.limit((int) _size);
+                    while (bytes.hasRemaining() && channel.read(bytes) >= 0) ;
+                    bytes.flip();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (bytes == null)
+                throw new IOException("Stream closed");
+            if (len == 0)
+                return 0;
+            CharBuffer chars = CharBuffer.wrap(cbuf, off, len);
+            while (chars.position() == off) {
+                if (flushed)
+                    return -1;
+                CoderResult result = decoder.decode(bytes, chars, true);
+                if (result.isUnderflow() && chars.position() == off) {
+                    decoder.flush(chars);
+                    flushed = true;
+                }
+            }
+            return chars.position() - off;
+        }
+
+        @Override
+        public void close() {
+            bytes = null;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.paladin.sys.lucene;
+
+import com.paladin.common.Constants;
+import com.paladin.common.Tools;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.highlight.PreparedQuery;
+import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
+import org.apache.lucene.search.vectorhighlight.FieldQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.wltea.analyzer.lucene.IKAnalyzer;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * 搜索 和 高亮 的 性能 测试
+ * <p/>
+ * 用固定种子生成中英文混合的博文，按不同的文章长度测试分词、查询解析、关键字提取(WeightedSpanTermExtractor)、
+ * Tools.highlight、Tools.snippet、FastVectorHighlighter，以及 TopScoreDocCollector 的大小和每次打开 searcher
+ * 与复用 searcher 的差别。每项先预热，再计时运行，输出每秒次数和每次分配的字节数(HotSpot 才有)。
+ * 修改这些代码前后各运行一次，比较结果。
+ * <p/>
+ * 用法：java -cp WebRoot/WEB-INF/classes:WebRoot/WEB-INF/lib/* com.paladin.sys.lucene.HighlightBenchmark [每项秒数] [名称包含的字符串]
+ * <p/>
+ * 只需要 WEB-INF/lib 中的 jar，不需要 Servlet 容器的 jar：各环节的计时在 Timers 中，不在请求中时不做任何事。
+ *
+ * @author Erhu
+ */
+public class HighlightBenchmark {
+
+    private static final String FIELD = "title_content_tag";
+    private static final int[] LENGTHS = {1000, 10000, 100000};// 文章 长度(字)
+    private static final String[] QUERIES = {"性能 优化", "lucene AND highlight", "\"全文 检索\" cache"};
+    private static final int CORPUS_SIZE = 2000;// 测试 检索 用 的 文章 数
+
+    private static final String[] ZH = {"搜索", "索引", "高亮", "博客", "代码", "数据库", "缓存", "性能", "分词", "查询",
+            "服务器", "线程", "内存", "文章", "关键字", "优化", "算法", "结构", "网络", "页面", "全文", "检索", "我们", "这个",
+            "可以", "一个", "没有", "因为", "所以", "时候"};
+    private static final String[] EN = {"lucene", "java", "search", "index", "highlight", "query", "cache", "thread",
+            "memory", "server", "token", "score", "fragment", "document", "analyzer", "the", "of", "and", "to", "is"};
+
+    private static long seconds = 2;
+    private static String filter;
+    private static volatile int sink;// 防止 结果 被 优化 掉
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0)
+            seconds = Long.parseLong(args[0]);
+        if (args.length > 1)
+            filter = args[1];
+
+        final Analyzer analyzer = new IKAnalyzer(false);
+        final Random random = new Random(42);
+        final String[] docs = new String[LENGTHS.length];
+        for (int i = 0; i < LENGTHS.length; i++)
+            docs[i] = text(random, LENGTHS[i]);
+
+        System.out.println(String.format("%-32s %14s %16s", "benchmark", "ops/s", "bytes/op"));
+
+        // 分词
+        for (int i = 0; i < LENGTHS.length; i++) {
+            final String doc = docs[i];
+            run("tokenize/" + LENGTHS[i], new Op() {
+                public void run() throws Exception {
+                    TokenStream tokens = new IKAnalyzer().tokenStream(FIELD, new StringReader(doc));
+                    int n = 0;
+                    while (tokens.incrementToken())
+                        n++;
+                    tokens.close();
+                    sink += n;
+                }
+            });
+        }
+
+        // 查询 解析 和 关键字 提取
+        final Query[] queries = new Query[QUERIES.length];
+        final PreparedQuery[] prepared = new PreparedQuery[QUERIES.length];
+        for (int q = 0; q < QUERIES.length; q++) {
+            final String s = QUERIES[q];
+            queries[q] = new QueryParser(Version.LUCENE_33, FIELD, analyzer).parse(s);
+            prepared[q] = new PreparedQuery(queries[q], null);
+            run("parse/" + q, new Op() {
+                public void run() throws Exception {
+                    sink += new QueryParser(Version.LUCENE_33, FIELD, analyzer).parse(s).hashCode();
+                }
+            });
+            final Query query = queries[q];
+            run("prepare/" + q, new Op() {
+                public void run() throws Exception {
+                    sink += new PreparedQuery(query, null).hashCode();
+                }
+            });
+        }
+
+        // 高亮 和 摘要，使用 第一个 查询
+        for (int i = 0; i < LENGTHS.length; i++) {
+            final String doc = docs[i];
+            run("highlight/" + LENGTHS[i], new Op() {
+                public void run() throws Exception {
+                    sink += length(Tools.highlight(prepared[0], FIELD, doc));
+                }
+            });
+            run("snippet/" + LENGTHS[i], new Op() {
+                public void run() throws Exception {
+                    sink += length(Tools.snippet(prepared[0], FIELD, doc, Constants.LENGTH_OF_SEARCH_CONTENT));
+                }
+            });
+        }
+
+        // FastVectorHighlighter 需要 带 位置 和 偏移 的 词向量
+        RAMDirectory vectors = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(vectors, new IndexWriterConfig(Version.LUCENE_33, analyzer));
+        for (String doc : docs) {
+            Document d = new Document();
+            d.add(new Field(FIELD, doc, Field.Store.YES, Field.Index.ANALYZED,
+                    Field.TermVector.WITH_POSITIONS_OFFSETS));
+            writer.addDocument(d);
+        }
+        writer.close();
+        final IndexReader vectorReader = IndexReader.open(vectors, true);
+        final FastVectorHighlighter fvh = new FastVectorHighlighter();
+        final FieldQuery fieldQuery = fvh.getFieldQuery(queries[0]);
+        for (int i = 0; i < LENGTHS.length; i++) {
+            final int docId = i;
+            run("fvh/" + LENGTHS[i], new Op() {
+                public void run() throws Exception {
+                    sink += length(fvh.getBestFragment(fieldQuery, vectorReader, docId, FIELD,
+                            Constants.LENGTH_OF_SEARCH_CONTENT));
+                }
+            });
+        }
+        vectorReader.close();
+
+        // 检索：collector 的 大小，searcher 的 打开 和 复用
+        final RAMDirectory corpus = new RAMDirectory();
+        writer = new IndexWriter(corpus, new IndexWriterConfig(Version.LUCENE_33, analyzer));
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            Document d = new Document();
+            d.add(new Field(FIELD, text(random, 2000), Field.Store.YES, Field.Index.ANALYZED));
+            writer.addDocument(d);
+        }
+        writer.close();
+        final IndexSearcher searcher = new IndexSearcher(IndexReader.open(corpus, true));
+        for (final int numHits : new int[]{10, 100, 10000}) {
+            run("collector/" + numHits, new Op() {
+                public void run() throws Exception {
+                    TopScoreDocCollector collector = TopScoreDocCollector.create(numHits, true);
+                    searcher.search(queries[0], collector);
+                    sink += collector.topDocs(0, Constants.NUM_PER_PAGE_SEARCH).scoreDocs.length;
+                }
+            });
+        }
+        run("searcher/reuse", new Op() {
+            public void run() throws Exception {
+                TopScoreDocCollector collector = TopScoreDocCollector.create(Constants.NUM_PER_PAGE_SEARCH, true);
+                searcher.search(queries[0], collector);
+                sink += collector.getTotalHits();
+            }
+        });
+        run("searcher/open", new Op() {
+            public void run() throws Exception {
+                IndexSearcher s = new IndexSearcher(IndexReader.open(corpus, true));
+                try {
+                    TopScoreDocCollector collector = TopScoreDocCollector.create(Constants.NUM_PER_PAGE_SEARCH, true);
+                    s.search(queries[0], collector);
+                    sink += collector.getTotalHits();
+                } finally {
+                    s.getIndexReader().close();
+                }
+            }
+        });
+        searcher.getIndexReader().close();
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    /**
+     * 预热 后 计时 运行
+     */
+    private static void run(String _name, Op _op) throws Exception {
+        if (filter != null && !_name.contains(filter))
+            return;
+        loop(_op, seconds * 1000000000L / 2);// 预热，让 JIT 编译
+        long bytes = allocated();
+        long begin = System.nanoTime();
+        long ops = loop(_op, seconds * 1000000000L);
+        long elapsed = System.nanoTime() - begin;
+        long allocated = allocated() - bytes;
+        System.out.println(String.format("%-32s %14.1f %16s", _name, ops * 1e9 / elapsed,
+                bytes < 0 ? "n/a" : String.valueOf(allocated / ops)));
+    }
+
+    private static long loop(Op _op, long _nanos) throws Exception {
+        long end = System.nanoTime() + _nanos;
+        long ops = 0;
+        do {
+            _op.run();
+            ops++;
+        } while (System.nanoTime() < end);
+        return ops;
+    }
+
+    /**
+     * 当前线程已分配的字节数，JVM 不支持时返回 -1
+     */
+    private static long allocated() {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    private static int length(String _s) {
+        return _s == null ? 0 : _s.length();
+    }
+
+    /**
+     * 生成 约 _length 个 字 的 中英文 混合 文章
+     */
+    private static String text(Random _random, int _length) {
+        StringBuilder sb = new StringBuilder(_length + 32);
+        while (sb.length() < _length) {
+            int words = 5 + _random.nextInt(15);
+            boolean english = _random.nextInt(4) == 0;
+            for (int i = 0; i < words; i++) {
+                if (english)
+                    sb.append(EN[_random.nextInt(EN.length)]).append(' ');
+                else
+                    sb.append(ZH[_random.nextInt(ZH.length)]);
+            }
+            sb.append(english ? ". " : "。");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package com.paladin.sys.lucene;
+
+import org.apache.lucene.analysis.BaseCharFilter;
+import org.apache.lucene.analysis.CharReader;
+import org.apache.lucene.analysis.CharStream;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * 去掉 HTML 标签的 CharFilter
+ * <p/>
+ * 边读边过滤，从 '<' 到 '>' 的标签(包括注释)换成一个空格，以免 a&lt;/p&gt;&lt;p&gt;b 这样的前后文字连成一个词；
+ * 其余字符原样输出，实体不解码，没有 '>' 结尾的 '<' 作为普通文本保留。
+ * 空格对应原文中标签的开始位置，标签之后的位置记录在 offset 修正表中，放在 Analyzer 前面时 token 的 offset
+ * 仍然对应原文。
+ * <p/>
+ * 建索引时用 {@link #strip(String)} 把文章内容转成纯文本，存入 snippet 字段，搜索时不再处理 HTML。
+ *
+ * @author erhu
+ */
+public final class HtmlStripFilter extends BaseCharFilter {
+
+    private final StringBuilder tag = new StringBuilder();// 正在读取的标签
+    private int pending = -1;// 未结束的标签按文本输出时的下一个位置，-1 表示没有
+    private int inputOffset;
+    private int outputOffset;
+
+    public HtmlStripFilter(CharStream in) {
+        super(in);
+    }
+
+    public HtmlStripFilter(Reader in) {
+        this(CharReader.get(in));
+    }
+
+    /**
+     * 去掉 HTML 标签
+     *
+     * @param _html
+     * @return 纯文本，_html 为 null 时返回 null
+     */
+    public static String strip(String _html) {
+        if (_html == null)
+            return null;
+        if (_html.indexOf('<') < 0)
+            return _html;
+        StringBuilder text = new StringBuilder(_html.length());
+        HtmlStripFilter filter = new HtmlStripFilter(new StringReader(_html));
+        char[] buf = new char[1024];
+        try {
+            for (int n = filter.read(buf, 0, buf.length); n > 0; n = filter.read(buf, 0, buf.length))
+                text.append(buf, 0, n);
+        } catch (IOException e) {// StringReader 不会出现
+            throw new IllegalStateException(e);
+        }
+        return text.toString();
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (true) {
+            if (pending >= 0) {
+                if (pending < tag.length()) {
+                    outputOffset++;
+                    return tag.charAt(pending++);
+                }
+                pending = -1;
+                tag.setLength(0);
+            }
+            int c = input.read();
+            if (c != '<') {
+                if (c >= 0) {
+                    inputOffset++;
+                    outputOffset++;
+                }
+                return c;
+            }
+            // 读到 '>' 为止
+            tag.append('<');
+            for (c = input.read(); c >= 0 && c != '>'; c = input.read())
+                tag.append((char) c);
+            if (c < 0) {// 没有结束，按文本输出
+                inputOffset += tag.length();
+                pending = 0;
+                continue;
+            }
+            inputOffset += tag.length() + 1;
+            tag.setLength(0);
+            outputOffset++;
+            addOffCorrectMap(outputOffset, inputOffset - outputOffset);
+            return ' ';
+        }
+    }
+
+    @Override
+    public int read(char[] _buf, int _off, int _len) throws IOException {
+        int i = 0;
+        for (; i < _len; i++) {
+            int c = read();
+            if (c < 0)
+                break;
+            _buf[_off + i] = (char) c;
+        }
+        return i == 0 && _len > 0 ? -1 : i;
+    }
+}
@@ -1,5 +1,6 @@
 package com.paladin.sys.lucene;
 
+import com.paladin.common.Constants;
 import com.paladin.sys.db.QueryHelper;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -14,11 +15,9 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.wltea.analyzer.lucene.IKAnalyzer;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
@@ -35,7 +34,6 @@ import static java.lang.System.out;
  */
 public class IndexDB {
 
-    private static final String BASE_DIR = "D:\\myData\\luceneIdx\\";
     // 要建立索引的表
     private static String[] tables = new String[]{"blog", "code"};
     // 新建 or 更新
@@ -45,15 +43,6 @@ public class IndexDB {
     private static final String SEP = "!&%@~~@%&!";
 
 
-    static {
-        for (String table : tables) {
-            String index_dir = BASE_DIR + table;
-            File dir = new File(index_dir);
-            if (!dir.exists())
-                dir.mkdirs();
-        }
-    }
-
     private IndexDB() {
     }
 
@@ -70,9 +59,7 @@ public class IndexDB {
     private static void index() throws IOException {
         for (String table : tables) {
             long begin = System.currentTimeMillis();
-            final String index_dir = BASE_DIR + table;
-            File dir = new File(index_dir);
-            Directory directory = FSDirectory.open(dir);
+            Directory directory = IndexStore.open(table);
             Analyzer analyzer = new IKAnalyzer(false);
             IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_33, analyzer);
             if (create)
@@ -104,18 +91,23 @@ public class IndexDB {
             Document doc = new Document();
             Field id_field = new Field("id", blog.get("ID").toString(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS);
 
+            String content = HtmlStripFilter.strip(String.valueOf(blog.get("CONTENT")));
+
             // 将三个字段合并加索引，方便检索时分页
             StringBuilder builder = new StringBuilder();
             builder.append(blog.get("TITLE"));
             builder.append(SEP);
-            builder.append(blog.get("CONTENT"));
+            builder.append(content);
             builder.append(SEP);
             builder.append(blog.get("TAG"));
 
             Field t_c_t_field = new Field("title_content_tag", builder.toString(), Field.Store.YES, Field.Index.ANALYZED);
 
+            Field snippet_field = new Field(Constants.LUCENE_SNIPPET_FIELD, content, Field.Store.YES, Field.Index.NO);
+
             doc.add(id_field);
             doc.add(t_c_t_field);
+            doc.add(snippet_field);
 
             if (writer.getConfig().getOpenMode() == IndexWriterConfig.OpenMode.CREATE)
                 writer.addDocument(doc);
@@ -127,10 +119,7 @@ public class IndexDB {
     public static void search(String _query) throws IOException, ParseException {
         out.println("检索关键字为: " + _query);
 
-        String index_dir = "D:\\myData\\luceneIdx\\blog";
-        File dir = new File(index_dir);
-
-        IndexSearcher searcher = new IndexSearcher(FSDirectory.open(dir));
+        IndexSearcher searcher = new IndexSearcher(IndexStore.open("blog"));
         Analyzer analyzer = new IKAnalyzer(false);
 
         Set<Document> doc_set = new HashSet<Document>();
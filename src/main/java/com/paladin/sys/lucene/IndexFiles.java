@@ -19,23 +19,14 @@ package com.paladin.sys.lucene;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.NumericField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Date;
 
 import static java.lang.System.out;
@@ -54,13 +45,12 @@ public class IndexFiles {
      * Index all text files under a directory.
      */
     public static void main(String[] args) {
-        args = new String[]{"-docs", "D:\\BJ\\ETLWorkspace\\ETL\\src", "-index", "D:\\myData\\luceneIdx"};
-
         final String usage = "java org.apache.lucene.demo.IndexFiles"
                 + " [-index INDEX_PATH] [-docs DOCS_PATH] [-update]\n\n"
                 + "This indexes the documents in DOCS_PATH, creating a Lucene index"
-                + "in INDEX_PATH that can be searched with SearchFiles";
-        String indexPath = "index";
+                + "in INDEX_PATH that can be searched with SearchFiles.\n"
+                + "INDEX_PATH defaults to the \"files\" directory of IndexStore";
+        String indexPath = null;
         String docsPath = null;
         boolean create = true;
 
@@ -89,9 +79,10 @@ public class IndexFiles {
 
         Date start = new Date();
         try {
-            out.println("Indexing to directory '" + indexPath + "'...");
+            File indexDir = (indexPath != null) ? new File(indexPath) : IndexStore.path("files");
+            out.println("Indexing to directory '" + indexDir + "'...");
 
-            Directory dir = FSDirectory.open(new File(indexPath));
+            Directory dir = (indexPath != null) ? IndexStore.open(indexDir) : IndexStore.open("files");
             Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_33);
             IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_33, analyzer);
 
@@ -100,12 +91,13 @@ public class IndexFiles {
             else // Add new documents to an existing index:
                 iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
 
-            // Optional: for better indexing performance, if you are indexing many documents, increase the RAM
-            // buffer.  But if you do this, increase the max heap  size to the JVM (eg add -Xmx512m or -Xmx1g):
-            // iwc.setRAMBufferSizeMB(256.0);
+            // For better indexing performance increase the RAM buffer.  If you raise it further, increase the
+            // max heap size of the JVM as well (eg add -Xmx512m or -Xmx1g):
+            iwc.setRAMBufferSizeMB(64.0);
 
             IndexWriter writer = new IndexWriter(dir, iwc);
-            indexDocs(writer, docDir);
+            // unchanged files (same path and modified time) are skipped when updating
+            new ContentIndexer(writer, Runtime.getRuntime().availableProcessors()).index(docDir);
 
             // NOTE: if you want to maximize search performance, you can optionally call optimize here.  This can be
             // a costly operation, so generally it's only worth it when your index is relatively static (ie you're
@@ -120,72 +112,4 @@ public class IndexFiles {
             out.println(" caught a " + e.getClass() + "\n with message: " + e.getMessage());
         }
     }
-
-    /**
-     * Indexes the given file using the given writer, or if a directory is given,
-     * recurses over files and directories found under the given directory.
-     * <p/>
-     * NOTE: This method indexes one document per input file.  This is slow.  For good
-     * throughput, put multiple documents into your input file(s).  An example of this is
-     * in the benchmark module, which can create "line doc" files, one document per line,
-     * using the
-     * <a href="../../../../../contrib-benchmark/org/apache/lucene/benchmark/byTask/tasks/WriteLineDocTask.html"
-     * >WriteLineDocTask</a>.
-     *
-     * @param writer Writer to the index where the given file/dir info will be stored
-     * @param file   The file to index, or the directory to recurse into to find files to index
-     * @throws IOException
-     */
-
-    static void indexDocs(IndexWriter writer, File file) throws IOException {
-        // do not try to index files that cannot be read
-        if (!file.canRead())
-            return;
-
-        if (file.isDirectory() && file.list() != null) {
-            String[] files = file.list();
-            for (int i = 0; i < files.length; i++)
-                indexDocs(writer, new File(file, files[i]));
-        } else {
-            FileInputStream fis;
-            try {
-                fis = new FileInputStream(file);
-            } catch (FileNotFoundException e) {
-                // at least on windows, some temporary files raise this exception with an "access denied" message
-                // checking if the file can be read doesn't help
-                return;
-            }
-
-            try {
-                Document doc = new Document();
-                // Add the path of the file as a field named "path".  Use a field that is indexed (i.e. searchable), but don't tokenize
-                // the field into separate words and don't index term frequency or positional information:
-                Field pathField = new Field("path", file.getPath(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS);
-                pathField.setOmitTermFreqAndPositions(true);
-                doc.add(pathField);
-
-                // Add the last modified date of the file a field named "modified". Use a NumericField that is indexed (i.e. efficiently filterable with
-                // NumericRangeFilter).  This indexes to milli-second resolution, which is often too fine.  You could instead create a number based on
-                // year/month/day/hour/minutes/seconds, down the resolution you require. For example the long value 2011021714 would mean
-                // February 17, 2011, 2-3 PM.
-                NumericField modifiedField = new NumericField("modified");
-                modifiedField.setLongValue(file.lastModified());
-                doc.add(modifiedField);
-
-                // Add the contents of the file to a field named "contents".  Specify a Reader, so that the text of the file is tokenized and indexed, but not stored.
-                // Note that FileReader expects the file to be in UTF-8 encoding. If that's not the case searching for special characters will fail.
-                doc.add(new Field("contents", new BufferedReader(new InputStreamReader(fis, "UTF-8"))));
-
-                if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
-                    out.println("adding " + file);
-                    writer.addDocument(doc);
-                } else {
-                    out.println("updating " + file);
-                    writer.updateDocument(new Term("path", file.getPath()), doc);
-                }
-            } finally {
-                fis.close();
-            }
-        }
-    }
 }
@@ -0,0 +1,138 @@
+package com.paladin.sys.lucene;
+
+import com.google.common.base.Strings;
+import com.paladin.common.Constants;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.store.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 索引的存储位置和目录实现，在 index.properties 中配置：
+ *
+ * <pre>
+ * root = /data/luceneIndex       # 索引根目录，每个表一个子目录，不配置时为 WebRoot/luceneIndex
+ * directory = fs                 # 默认的目录实现：fs(由 Lucene 自动选择)、mmap、nio、simple
+ * blog.path = /ssd/index/blog    # 单独指定某个表的位置
+ * blog.directory = mmap          # 单独指定某个表的目录实现
+ * motto.ram = true               # 启动时把整个索引复制到内存中，见 Searchers
+ * </pre>
+ *
+ * 系统属性 -Dindex.root 优先于配置文件，方便命令行工具使用。64 位 Linux 上建议把索引放在本地磁盘并使用 mmap。
+ *
+ * @author erhu
+ */
+public class IndexStore {
+
+    private static final Log log = LogFactory.getLog(IndexStore.class);
+    private static final String CONFIG_FILE = "com/paladin/sys/lucene/index.properties";
+
+    private static final Properties props = new Properties();
+
+    static {
+        InputStream in = IndexStore.class.getClassLoader().getResourceAsStream(CONFIG_FILE);
+        if (in != null) {
+            try {
+                props.load(in);
+            } catch (IOException e) {
+                log.error("Unable to load " + CONFIG_FILE, e);
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private IndexStore() {
+    }
+
+    /**
+     * 索引根目录
+     */
+    public static File root() {
+        String root = System.getProperty("index.root", props.getProperty("root"));
+        return Strings.isNullOrEmpty(root) ? new File(Constants.LUCENE_INDEX_ROOT) : new File(root.trim());
+    }
+
+    /**
+     * 某个表的索引目录
+     *
+     * @param _table
+     * @return
+     */
+    public static File path(String _table) {
+        String path = props.getProperty(_table + ".path");
+        return Strings.isNullOrEmpty(path) ? new File(root(), _table) : new File(path.trim());
+    }
+
+    /**
+     * 某个表的索引是否常驻内存
+     *
+     * @param _table
+     * @return
+     */
+    public static boolean ram(String _table) {
+        return Boolean.parseBoolean(props.getProperty(_table + ".ram", "false").trim());
+    }
+
+    /**
+     * 所有常驻内存的表
+     */
+    public static List<String> ramTables() {
+        List<String> tables = new ArrayList<String>();
+        for (String name : props.stringPropertyNames())
+            if (name.endsWith(".ram") && ram(name.substring(0, name.length() - 4)))
+                tables.add(name.substring(0, name.length() - 4));
+        return tables;
+    }
+
+    /**
+     * 按配置打开某个表的索引目录，目录不存在时创建
+     *
+     * @param _table
+     * @return
+     * @throws IOException
+     */
+    public static Directory open(String _table) throws IOException {
+        return open(path(_table), props.getProperty(_table + ".directory"));
+    }
+
+    /**
+     * 用默认的目录实现打开任意位置的索引
+     *
+     * @param _dir
+     * @return
+     * @throws IOException
+     */
+    public static Directory open(File _dir) throws IOException {
+        return open(_dir, null);
+    }
+
+    private static Directory open(File _dir, String _type) throws IOException {
+        if (!_dir.exists())
+            _dir.mkdirs();
+        String type = Strings.isNullOrEmpty(_type) ? props.getProperty("directory", "fs") : _type;
+        type = type.trim().toLowerCase();
+        if ("mmap".equals(type)) {
+            MMapDirectory dir = new MMapDirectory(_dir);
+            if (MMapDirectory.UNMAP_SUPPORTED)
+                dir.setUseUnmap(true);
+            return dir;
+        }
+        if ("nio".equals(type))
+            return new NIOFSDirectory(_dir);
+        if ("simple".equals(type))
+            return new SimpleFSDirectory(_dir);
+        if (!"fs".equals(type))
+            log.warn("Unknown directory type [" + type + "] for " + _dir + ", using FSDirectory.open");
+        return FSDirectory.open(_dir);
+    }
+}
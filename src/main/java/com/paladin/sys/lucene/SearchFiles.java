@@ -25,7 +25,6 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import java.io.*;
@@ -54,13 +53,12 @@ public class SearchFiles {
                 "[-repeat n] [-queries file] [-query string] [-raw] [-paging numPerPage]\n\n" +
                 "See http://lucene.apache.org/java/4_0/demo.html for details.";
 
-        args = new String[]{"-index", "D:\\myData\\luceneIdx"};
         if (args.length > 0 && ("-h".equals(args[0]) || "-help".equals(args[0]))) {
             out.println(usage);
             System.exit(0);
         }
 
-        String index = "index";
+        String index = null;
         String field = "contents";
         int repeat = 0;
         boolean raw = false;
@@ -88,7 +86,8 @@ public class SearchFiles {
             }
         }
 
-        IndexSearcher searcher = new IndexSearcher(FSDirectory.open(new File(index)));
+        IndexSearcher searcher = new IndexSearcher((index != null) ? IndexStore.open(new File(index))
+                : IndexStore.open("files"));
         Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_31);
         BufferedReader buffered_reader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
         QueryParser parser = new QueryParser(Version.LUCENE_31, field, analyzer);
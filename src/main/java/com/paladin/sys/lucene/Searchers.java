@@ -0,0 +1,288 @@
+package com.paladin.sys.lucene;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 各表共用的 IndexSearcher
+ * <p/>
+ * 每个表只打开一个 searcher，用 {@link #acquire(String)} 取得、{@link #release(IndexSearcher)} 归还，
+ * 索引提交后旧的 searcher 在最后一个使用者归还后关闭。index.properties 中配置了 &lt;table&gt;.ram = true 的表
+ * 启动时整个复制到内存中，查询不再读磁盘。
+ * <p/>
+ * 本进程写完索引后调用 {@link #refresh(String)} 立即换用新的 searcher；其他进程(如命令行工具)写入的索引
+ * 由 {@link #start()} 启动的后台线程每 {@link #CHECK_INTERVAL} 毫秒检查一次。比较版本、重新打开和复制到内存
+ * 都在表锁之外进行，只有换用 searcher 时才持有表锁，请求线程取得 searcher 时不会等待磁盘读写。
+ *
+ * @author erhu
+ */
+public class Searchers {
+
+    private static final Log log = LogFactory.getLog(Searchers.class);
+
+    /**
+     * 检查磁盘上的索引是否有新提交的间隔(毫秒)
+     */
+    public static final long CHECK_INTERVAL = 5000;
+
+    private static final ConcurrentHashMap<String, Holder> holders = new ConcurrentHashMap<String, Holder>();
+    private static final AtomicInteger inUse = new AtomicInteger();// 已取得尚未归还的 searcher
+    private static ScheduledExecutorService refresher;
+
+    private Searchers() {
+    }
+
+    /**
+     * 载入所有常驻内存的索引，启动检查新提交的后台线程
+     */
+    public static synchronized void start() {
+        for (String table : IndexStore.ramTables()) {
+            try {
+                refresh(table);
+            } catch (IOException e) {
+                log.error("Failed to load index of " + table + " into memory", e);
+            }
+        }
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("searchers-refresh-%d").setDaemon(true).build());
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    check();
+                }
+            }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 取得某个表的 searcher，用完后必须调用 {@link #release(IndexSearcher)}
+     *
+     * @param _table
+     * @return 索引尚未建立时返回 null
+     * @throws IOException
+     */
+    public static IndexSearcher acquire(String _table) throws IOException {
+        Holder holder = holder(_table);
+        IndexSearcher searcher = holder.acquire();
+        if (searcher == null && holder.due()) {// 第一次使用，在本线程载入；索引不存在时每隔 CHECK_INTERVAL 才再试
+            holder.reopen(false);
+            searcher = holder.acquire();
+        }
+        if (searcher != null)
+            inUse.incrementAndGet();
+        return searcher;
+    }
+
+    public static void release(IndexSearcher _searcher) throws IOException {
+        if (_searcher != null) {
+            inUse.decrementAndGet();
+            _searcher.getIndexReader().decRef();
+        }
+    }
+
+    /**
+     * 索引提交后立即换用新的 searcher
+     *
+     * @param _table
+     * @throws IOException
+     */
+    public static void refresh(String _table) throws IOException {
+        holder(_table).reopen(true);
+    }
+
+    /**
+     * 停止后台线程，关闭所有 searcher 和索引目录，正在使用的 searcher 在归还后关闭
+     */
+    public static synchronized void close() {
+        if (refresher != null) {
+            refresher.shutdown();
+            refresher = null;
+        }
+        for (Holder holder : holders.values()) {
+            try {
+                holder.close();
+            } catch (IOException e) {
+                log.error("Failed to close searcher of " + holder.table, e);
+            }
+        }
+        holders.clear();
+    }
+
+    /**
+     * 后台线程：各表的索引有新提交时换用新的 searcher
+     */
+    private static void check() {
+        for (Holder holder : holders.values()) {
+            try {
+                holder.reopen(false);
+            } catch (Exception e) {// 不能让异常结束定时任务
+                log.error("Failed to reopen index of " + holder.table, e);
+            }
+        }
+    }
+
+    /**
+     * 各表 当前 的 searcher：generation(换过几次 searcher)、version(索引版本)、docs(文档数)、
+     * refs(引用数，1 表示没有在使用)
+     *
+     * @return
+     */
+    public static Map<String, Map<String, Long>> stats() {
+        Map<String, Map<String, Long>> stats = new TreeMap<String, Map<String, Long>>();
+        for (Holder holder : holders.values()) {
+            synchronized (holder) {
+                if (holder.searcher == null)
+                    continue;
+                IndexReader reader = holder.searcher.getIndexReader();
+                Map<String, Long> s = new LinkedHashMap<String, Long>();
+                s.put("generation", holder.generation);
+                s.put("version", reader.getVersion());
+                s.put("docs", (long) reader.numDocs());
+                s.put("refs", (long) reader.getRefCount());
+                stats.put(holder.table, s);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 已取得 尚未 归还 的 searcher 数
+     */
+    public static int inUse() {
+        return inUse.get();
+    }
+
+    private static Holder holder(String _table) {
+        Holder holder = holders.get(_table);
+        if (holder == null) {
+            Holder created = new Holder(_table);
+            holder = holders.putIfAbsent(_table, created);
+            if (holder == null)
+                holder = created;
+        }
+        return holder;
+    }
+
+    /**
+     * 一个表当前的 searcher
+     * <p/>
+     * searcher、checked、generation 在 holder 的锁内访问，只用于取得和换用 searcher；
+     * dir 和重新打开的过程由 loading 锁串行，磁盘读写不占用 holder 的锁。
+     */
+    private static class Holder {
+        private final String table;
+        private final boolean ram;
+        private final Object loading = new Object();
+        private Directory dir;
+        private IndexSearcher searcher;
+        private long checked;
+        private long generation;
+
+        Holder(String table) {
+            this.table = table;
+            this.ram = IndexStore.ram(table);
+        }
+
+        /**
+         * 取得当前的 searcher 并增加引用
+         */
+        synchronized IndexSearcher acquire() {
+            if (searcher == null)
+                return null;
+            searcher.getIndexReader().incRef();
+            return searcher;
+        }
+
+        /**
+         * 距上次在请求线程中载入超过 CHECK_INTERVAL 时返回 true
+         */
+        synchronized boolean due() {
+            long now = System.currentTimeMillis();
+            if (now - checked <= CHECK_INTERVAL)
+                return false;
+            checked = now;
+            return true;
+        }
+
+        /**
+         * 磁盘上有新的提交时换用新的 searcher
+         *
+         * @param _force 为 true 时不比较版本，常驻内存的索引会重新复制
+         */
+        void reopen(boolean _force) throws IOException {
+            synchronized (loading) {
+                if (dir == null)
+                    dir = IndexStore.open(table);
+                if (!IndexReader.indexExists(dir))
+                    return;
+                IndexSearcher current = acquire();// 只有本方法换用 searcher，重新打开期间 current 不会被换掉
+                try {
+                    if (!_force && current != null
+                            && IndexReader.getCurrentVersion(dir) == current.getIndexReader().getVersion())
+                        return;
+
+                    IndexReader reader;
+                    if (ram) {
+                        long begin = System.currentTimeMillis();
+                        try {
+                            reader = IndexReader.open(new RAMDirectory(dir), true);
+                        } catch (IOException e) {// 复制时索引正在提交，下次再试
+                            log.warn("Failed to copy index of " + table + " into memory, will retry later", e);
+                            return;
+                        }
+                        log.info("Index of " + table + " loaded into memory in "
+                                + (System.currentTimeMillis() - begin) + " milliseconds");
+                    } else if (current != null) {
+                        reader = current.getIndexReader().reopen();
+                        if (reader == current.getIndexReader())
+                            return;
+                    } else {
+                        reader = IndexReader.open(dir, true);
+                    }
+                    swap(new IndexSearcher(reader));
+                } finally {
+                    if (current != null)
+                        current.getIndexReader().decRef();
+                }
+            }
+        }
+
+        /**
+         * 关闭 searcher 和 索引目录，等待正在进行的重新打开结束
+         */
+        void close() throws IOException {
+            synchronized (loading) {
+                swap(null);
+                if (dir != null) {
+                    dir.close();
+                    dir = null;
+                }
+            }
+        }
+
+        synchronized void swap(IndexSearcher _searcher) throws IOException {
+            IndexSearcher old = searcher;
+            searcher = _searcher;
+            if (_searcher != null)
+                generation++;
+            if (old != null)
+                old.getIndexReader().decRef();
+        }
+    }
+}
@@ -2,8 +2,8 @@ package com.paladin.sys.lucene;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
@@ -11,18 +11,20 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Date;
 
 class Indexer {
     public static void main(String[] args) throws IOException, ParseException {
-        File index_dir = new File("d:\\myData\\luceneIdx");
-        File data_dir = new File("D:\\BJ\\");
+        if (args.length == 0) {
+            System.err.println("Usage: java com.paladin.sys.lucene.Indexer DATA_DIR");
+            System.exit(1);
+        }
+        File index_dir = IndexStore.path("txt");
+        File data_dir = new File(args[0]);
         long begin = System.currentTimeMillis();
         int numIndexed = index(index_dir, data_dir);
         long end = System.currentTimeMillis();
@@ -36,53 +38,23 @@ class Indexer {
             throw new IOException(dataDir + " does not exist or is not a directory");
         }
 
-        IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir), new StandardAnalyzer(Version.LUCENE_31), true, IndexWriter.MaxFieldLength.UNLIMITED);
-        writer.setUseCompoundFile(false);
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_33, new StandardAnalyzer(Version.LUCENE_33));
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IndexWriter writer = new IndexWriter(IndexStore.open(indexDir), iwc);
 
-        indexDirectory(writer, dataDir);
+        new ContentIndexer(writer, Runtime.getRuntime().availableProcessors()).accept("txt").index(dataDir);
 
         int numIndexed = writer.numDocs();
         writer.optimize();
         writer.close();
         return numIndexed;
-
-    }
-
-    //recursive method that calls itself when it finds a directory，递归索引所有文件
-    private static void indexDirectory(IndexWriter writer, File dir)
-            throws IOException {
-        File[] files = dir.listFiles();
-
-        for (int i = 0; i < files.length; i++) {
-            File f = files[i];
-            if (f.isDirectory()) {
-                indexDirectory(writer, f);
-            } else if (f.getName().endsWith(".txt")) {
-                indexFile(writer, f);
-            }
-        }
-    }
-
-    //method to actually index a file using Lucene，对每个文件建立索引
-    private static void indexFile(IndexWriter writer, File f) throws IOException {
-
-        if (f.isHidden() || !f.exists() || !f.canRead()) {
-            return;
-        }
-        System.out.println("Indexing " + f.getCanonicalPath());
-
-        Document doc = new Document();
-        doc.add(new Field("contents", new FileReader(f)));
-        doc.add(new Field("filename", f.getCanonicalPath(), Field.Store.YES, Field.Index.ANALYZED));
-
-        writer.addDocument(doc);
     }
 }
 
 class Searcher {
     public static void main(String[] args) throws Exception {
-        File indexDir = new File("d:\\myData\\luceneIdx");
-        String q = "contents";
+        File indexDir = IndexStore.path("txt");
+        String q = (args.length > 0) ? args[0] : "contents";
 
         if (!indexDir.exists() || !indexDir.isDirectory()) {
             throw new Exception(indexDir + " does not exist or is not a directory.");
@@ -92,7 +64,7 @@ class Searcher {
 
     public static void search(File indexDir, String q) throws Exception {
         // TODO Auto-generated method stub
-        Directory fsDir = FSDirectory.open(indexDir);
+        Directory fsDir = IndexStore.open(indexDir);
         IndexSearcher is = new IndexSearcher(fsDir, true);
 
         QueryParser parser = new QueryParser(Version.LUCENE_CURRENT, "contents", new StandardAnalyzer(Version.LUCENE_CURRENT));
@@ -107,7 +79,7 @@ class Searcher {
         System.out.println(hits.length);
         for (int i = 0; i < hits.length; i++) {
             Document doc = is.doc(hits[i].doc);
-            System.out.println(doc.getField("filename") + " " + hits[i].toString() + "");
+            System.out.println(doc.get("path") + " " + hits[i].toString() + "");
         }
         long end = new Date().getTime();
 
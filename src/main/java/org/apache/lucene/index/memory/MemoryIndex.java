@@ -24,10 +24,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -54,6 +54,7 @@ import org.apache.lucene.search.Similarity;
 import org.apache.lucene.store.RAMDirectory; // for javadocs
 import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.Constants; // for javadocs
+import org.apache.lucene.util.SorterTemplate;
 
 /**
  * High-performance single-document main memory Apache Lucene fulltext search index. 
@@ -147,13 +148,23 @@ import org.apache.lucene.util.Constants; // for javadocs
  *    // read and/or write index (i.e. add fields and/or query)
  * } 
  * </pre>
+ * or keep one instance per thread and call {@link #reset()} before each document:
+ * <pre>
+ * private static final ThreadLocal&lt;MemoryIndex&gt; indexes = ...
+ * MemoryIndex index = indexes.get();
+ * index.reset();
+ * index.addField("content", text, analyzer);
+ * </pre>
  * 
  * 
  * <h4>Performance Notes</h4>
  * 
  * Internally there's a new data structure geared towards efficient indexing 
  * and searching, plus the necessary support code to seamlessly plug into the Lucene 
- * framework.
+ * framework. Term texts of all fields are copied back to back into one char pool and
+ * looked up through a per field open addressing hash of term ids; positions (and
+ * offsets) of all terms of a field live in one int array, grouped by term. No object
+ * is created per token or per term, and all arrays are kept across {@link #reset()}.
  * <p>
  * This class performs very well for very small texts (e.g. 10 chars) 
  * as well as for large texts (e.g. 10 MB) and everything in between. 
@@ -178,33 +189,45 @@ import org.apache.lucene.util.Constants; // for javadocs
  */
 public class MemoryIndex implements Serializable {
 
-  /** info for each field: Map<String fieldName, Info field> */
-  private final HashMap<String,Info> fields = new HashMap<String,Info>();
+  /** fields in the order they were added; entries past numFields are kept for reuse after reset() */
+  private Info[] infos = new Info[1];
+  
+  /** number of fields of the current document */
+  private int numFields;
   
   /** fields sorted ascending by fieldName; lazily computed on demand */
-  private transient Map.Entry<String,Info>[] sortedFields; 
+  private transient Info[] sortedFields; 
+  
+  /** term texts of all fields, back to back; see Info.termStart and Info.termLength */
+  private char[] termPool = new char[64];
+  
+  /** number of chars used in termPool */
+  private int termPoolUsed;
+  
+  /** termId, pos (, startOffset, endOffset) of each token of the field being added */
+  private int[] tokens = new int[32];
   
   /** pos: positions[3*i], startOffset: positions[3*i +1], endOffset: positions[3*i +2] */
   private final int stride;
   
+  /** incremented on every change, so that readers drop their cached norms */
+  private int generation;
+  
+  /** reused by search(); readers always see the current contents */
+  private transient IndexSearcher searcher;
+  
   /** Could be made configurable; See {@link org.apache.lucene.document.Document#setBoost(float)} */
   private static final float docBoost = 1.0f;
   
-  private static final long serialVersionUID = 2782195016849084649L;
+  private static final long serialVersionUID = 2782195016849084650L;
 
   private static final boolean DEBUG = false;
   
-  /**
-   * Sorts term entries into ascending order; also works for
-   * Arrays.binarySearch() and Arrays.sort()
-   */
-  private static final Comparator<Object> termComparator = new Comparator<Object>() {
-    @SuppressWarnings("unchecked")
-    public int compare(Object o1, Object o2) {
-      if (o1 instanceof Map.Entry<?,?>) o1 = ((Map.Entry<?,?>) o1).getKey();
-      if (o2 instanceof Map.Entry<?,?>) o2 = ((Map.Entry<?,?>) o2).getKey();
-      if (o1 == o2) return 0;
-      return ((String) o1).compareTo((String) o2);
+  /** Sorts fields into ascending order of their names */
+  private static final Comparator<Info> fieldComparator = new Comparator<Info>() {
+    public int compare(Info i1, Info i2) {
+      if (i1.name == i2.name) return 0;
+      return i1.name.compareTo(i2.name);
     }
   };
 
@@ -339,10 +362,12 @@ public class MemoryIndex implements Serializable {
           throw new IllegalArgumentException("token stream must not be null");
       if (boost <= 0.0f)
           throw new IllegalArgumentException("boost factor must be greater than 0.0");
-      if (fields.get(fieldName) != null)
+      if (getInfo(fieldName) != null)
         throw new IllegalArgumentException("field must not be added more than once");
       
-      HashMap<String,ArrayIntList> terms = new HashMap<String,ArrayIntList>();
+      Info info = nextInfo(fieldName);
+      int width = stride + 1; // termId + positions/offsets
+      int used = 0;
       int numTokens = 0;
       int numOverlapTokens = 0;
       int pos = -1;
@@ -352,33 +377,35 @@ public class MemoryIndex implements Serializable {
       OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
       stream.reset();
       while (stream.incrementToken()) {
-        String term = termAtt.toString();
-        if (term.length() == 0) continue; // nothing to do
-//        if (DEBUG) System.err.println("token='" + term + "'");
+        int len = termAtt.length();
+        if (len == 0) continue; // nothing to do
         numTokens++;
         final int posIncr = posIncrAttribute.getPositionIncrement();
         if (posIncr == 0)
           numOverlapTokens++;
         pos += posIncr;
         
-        ArrayIntList positions = terms.get(term);
-        if (positions == null) { // term not seen before
-          positions = new ArrayIntList(stride);
-          terms.put(term, positions);
-        }
-        if (stride == 1) {
-          positions.add(pos);
-        } else {
-          positions.add(pos, offsetAtt.startOffset(), offsetAtt.endOffset());
+        int termId = addTerm(info, termAtt.buffer(), len);
+        if (used + width > tokens.length) tokens = ArrayUtil.grow(tokens, used + width);
+        tokens[used] = termId;
+        tokens[used+1] = pos;
+        if (stride != 1) {
+          tokens[used+2] = offsetAtt.startOffset();
+          tokens[used+3] = offsetAtt.endOffset();
         }
+        used += width;
       }
       stream.end();
 
       // ensure infos.numTokens > 0 invariant; needed for correct operation of terms()
       if (numTokens > 0) {
-        boost = boost * docBoost; // see DocumentWriter.addDocument(...)
-        fields.put(fieldName, new Info(terms, numTokens, numOverlapTokens, boost));
+        info.invert(tokens, used, stride);
+        info.numTokens = numTokens;
+        info.numOverlapTokens = numOverlapTokens;
+        info.boost = boost * docBoost; // see DocumentWriter.addDocument(...)
+        numFields++;
         sortedFields = null;    // invalidate sorted view, if any
+        generation++;
       }
     } catch (IOException e) { // can never happen
       throw new RuntimeException(e);
@@ -391,6 +418,23 @@ public class MemoryIndex implements Serializable {
     }
   }
   
+  /**
+   * Removes all fields so that this instance can be filled with the next
+   * document. The term pool, hash tables and position arrays are kept and
+   * overwritten, so an instance reused for many documents (e.g. one per
+   * thread) stops allocating once it has seen the largest of them. Searchers
+   * created before see the new contents.
+   */
+  public void reset() {
+    for (int i=0; i < numFields; i++) {
+      infos[i].clearTexts();
+    }
+    numFields = 0;
+    termPoolUsed = 0;
+    sortedFields = null;
+    generation++;
+  }
+  
   /**
    * Creates and returns a searcher that can be used to execute arbitrary
    * Lucene queries and to collect the resulting query results as hits.
@@ -419,7 +463,7 @@ public class MemoryIndex implements Serializable {
     if (query == null) 
       throw new IllegalArgumentException("query must not be null");
     
-    Searcher searcher = createSearcher();
+    if (searcher == null) searcher = createSearcher();
     try {
       final float[] scores = new float[1]; // inits to 0.0f (no match)
       searcher.search(query, new Collector() {
@@ -447,28 +491,22 @@ public class MemoryIndex implements Serializable {
       return score;
     } catch (IOException e) { // can never happen (RAMDirectory)
       throw new RuntimeException(e);
-    } finally {
-      // searcher.close();
-      /*
-       * Note that it is harmless and important for good performance to
-       * NOT close the index reader!!! This avoids all sorts of
-       * unnecessary baggage and locking in the Lucene IndexReader
-       * superclass, all of which is completely unnecessary for this main
-       * memory index data structure without thread-safety claims.
-       * 
-       * Wishing IndexReader would be an interface...
-       * 
-       * Actually with the new tight createSearcher() API auto-closing is now
-       * made impossible, hence searcher.close() would be harmless and also 
-       * would not degrade performance...
-       */
-    }   
+    }
+    /*
+     * Note that it is harmless and important for good performance to
+     * NOT close the index reader!!! This avoids all sorts of
+     * unnecessary baggage and locking in the Lucene IndexReader
+     * superclass, all of which is completely unnecessary for this main
+     * memory index data structure without thread-safety claims.
+     */
   }
   
   /**
-   * Returns a reasonable approximation of the main memory [bytes] consumed by
-   * this instance. Useful for smart memory sensititive caches/pools. Assumes
-   * fieldNames are interned, whereas tokenized terms are memory-overlaid.
+   * Returns the main memory [bytes] retained by this instance, computed from
+   * the actual capacity of every array it holds, including the arrays kept
+   * for reuse after {@link #reset()} and term texts materialized as Strings.
+   * Useful for smart memory sensititive caches/pools. Assumes fieldNames are
+   * interned; does not include the searcher reused by {@link #search(Query)}.
    * 
    * @return the main memory consumption
    */
@@ -477,51 +515,128 @@ public class MemoryIndex implements Serializable {
     int PTR = VM.PTR;
     int INT = VM.INT;
     int size = 0;
-    size += VM.sizeOfObject(2*PTR + INT); // memory index
+    size += VM.sizeOfObject(5*PTR + 4*INT); // memory index
+    size += VM.sizeOfObjectArray(infos.length);
     if (sortedFields != null) size += VM.sizeOfObjectArray(sortedFields.length);
-    
-    size += VM.sizeOfHashMap(fields.size());
-    for (Map.Entry<String, Info> entry : fields.entrySet()) { // for each Field Info
-      Info info = entry.getValue();
-      size += VM.sizeOfObject(2*INT + 3*PTR); // Info instance vars
-      if (info.sortedTerms != null) size += VM.sizeOfObjectArray(info.sortedTerms.length);
-      
-      int len = info.terms.size();
-      size += VM.sizeOfHashMap(len);
-      Iterator<Map.Entry<String,ArrayIntList>> iter2 = info.terms.entrySet().iterator();
-      while (--len >= 0) { // for each term
-        Map.Entry<String,ArrayIntList> e = iter2.next();
-        size += VM.sizeOfObject(PTR + 3*INT); // assumes substring() memory overlay
-//        size += STR + 2 * ((String) e.getKey()).length();
-        ArrayIntList positions = e.getValue();
-        size += VM.sizeOfArrayIntList(positions.size());
-      }
+    size += VM.sizeOfCharArray(termPool.length);
+    size += VM.sizeOfIntArray(tokens.length);
+    for (int i=0; i < infos.length; i++) {
+      if (infos[i] != null) size += infos[i].getMemorySize();
     }
     return size;
   } 
 
-  private int numPositions(ArrayIntList positions) {
-    return positions.size() / stride;
+  private int numPositions(Info info, int termId) {
+    return (info.postingStart[termId+1] - info.postingStart[termId]) / stride;
   }
   
-  /** sorts into ascending order (on demand), reusing memory along the way */
-  private void sortFields() {
-    if (sortedFields == null) sortedFields = sort(fields);
+  /** returns the positions (without offsets) of the given term */
+  private int[] positions(Info info, int termId) {
+    int start = info.postingStart[termId];
+    int end = info.postingStart[termId+1];
+    int[] arr = new int[(end - start) / stride];
+    for (int i=0, j=start; j < end; i++, j += stride) arr[i] = info.postings[j];
+    return arr;
   }
   
-  /** returns a view of the given map's entries, sorted ascending by key */
-  private static <K,V> Map.Entry<K,V>[] sort(HashMap<K,V> map) {
-    int size = map.size();
-    @SuppressWarnings("unchecked")
-    Map.Entry<K,V>[] entries = new Map.Entry[size];
-    
-    Iterator<Map.Entry<K,V>> iter = map.entrySet().iterator();
-    for (int i=0; i < size; i++) {
-      entries[i] = iter.next();
+  /** returns the offsets of the given term, or null if none are stored */
+  private org.apache.lucene.index.TermVectorOffsetInfo[] offsets(Info info, int termId) {
+    if (stride == 1) return null; // no offsets stored
+    int start = info.postingStart[termId];
+    int end = info.postingStart[termId+1];
+    org.apache.lucene.index.TermVectorOffsetInfo[] offsets = 
+      new org.apache.lucene.index.TermVectorOffsetInfo[(end - start) / stride];
+    for (int i=0, j=start; j < end; i++, j += stride) {
+      offsets[i] = new org.apache.lucene.index.TermVectorOffsetInfo(info.postings[j+1], info.postings[j+2]);
+    }
+    return offsets;
+  }
+  
+  /** returns the field with the given name, or null */
+  private Info getInfo(String fieldName) {
+    for (int i=0; i < numFields; i++) {
+      String name = infos[i].name;
+      if (name == fieldName || name.equals(fieldName)) return infos[i];
+    }
+    return null;
+  }
+  
+  /** returns a cleared Info for the next field, reusing one from a previous document if possible */
+  private Info nextInfo(String fieldName) {
+    if (numFields == infos.length) {
+      Info[] newInfos = new Info[ArrayUtil.oversize(numFields + 1, VM.PTR)];
+      System.arraycopy(infos, 0, newInfos, 0, numFields);
+      infos = newInfos;
+    }
+    Info info = infos[numFields];
+    if (info == null) {
+      info = new Info();
+      infos[numFields] = info;
+    }
+    info.clear(fieldName);
+    return info;
+  }
+  
+  /** returns the id of the given term within the field, adding it to the term pool if not seen before */
+  private int addTerm(Info info, char[] buffer, int len) {
+    int h = 0;
+    for (int i=0; i < len; i++) h = 31*h + buffer[i]; // same as String.hashCode()
+    int mask = info.hash.length - 1;
+    int slot = mix(h) & mask;
+    int termId;
+    while ((termId = info.hash[slot] - 1) >= 0) {
+      if (equals(termPool, info.termStart[termId], info.termLength[termId], buffer, len)) return termId;
+      slot = (slot + 1) & mask;
     }
     
-    if (size > 1) ArrayUtil.quickSort(entries, termComparator);
-    return entries;
+    if (termPoolUsed + len > termPool.length) termPool = ArrayUtil.grow(termPool, termPoolUsed + len);
+    System.arraycopy(buffer, 0, termPool, termPoolUsed, len);
+    termId = info.numTerms++;
+    if (termId == info.termStart.length) {
+      info.termStart = ArrayUtil.grow(info.termStart, termId + 1);
+      info.termLength = ArrayUtil.grow(info.termLength, termId + 1);
+    }
+    info.termStart[termId] = termPoolUsed;
+    info.termLength[termId] = len;
+    termPoolUsed += len;
+    info.hash[slot] = termId + 1;
+    if (info.numTerms * 2 > info.hash.length) info.rehash(termPool);
+    return termId;
+  }
+  
+  /** spreads the bits of a String.hashCode() for the open addressing tables */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+  
+  private static boolean equals(char[] pool, int start, int len, char[] buffer, int bufferLen) {
+    if (len != bufferLen) return false;
+    for (int i=0; i < len; i++) {
+      if (pool[start+i] != buffer[i]) return false;
+    }
+    return true;
+  }
+  
+  /** compares a pooled term with a String, in the order of String.compareTo() */
+  private static int compare(char[] pool, int start, int len, String text) {
+    int n = Math.min(len, text.length());
+    for (int i=0; i < n; i++) {
+      int c = pool[start+i] - text.charAt(i);
+      if (c != 0) return c;
+    }
+    return len - text.length();
+  }
+  
+  /** sorts into ascending order (on demand) */
+  private void sortFields() {
+    if (sortedFields == null) {
+      sortedFields = new Info[numFields];
+      System.arraycopy(infos, 0, sortedFields, 0, numFields);
+      if (numFields > 1) Arrays.sort(sortedFields, fieldComparator);
+    }
   }
   
   /**
@@ -538,32 +653,28 @@ public class MemoryIndex implements Serializable {
     int sumTerms = 0;
     
     for (int i=0; i < sortedFields.length; i++) {
-      Map.Entry<String,Info> entry = sortedFields[i];
-      String fieldName = entry.getKey();
-      Info info = entry.getValue();
-      info.sortTerms();
-      result.append(fieldName + ":\n");
+      Info info = sortedFields[i];
+      info.sortTerms(termPool);
+      result.append(info.name + ":\n");
       
       int numChars = 0;
       int numPositions = 0;
-      for (int j=0; j < info.sortedTerms.length; j++) {
-        Map.Entry<String,ArrayIntList> e = info.sortedTerms[j];
-        String term = e.getKey();
-        ArrayIntList positions = e.getValue();
-        result.append("\t'" + term + "':" + numPositions(positions) + ":");
-        result.append(positions.toString(stride)); // ignore offsets
+      for (int j=0; j < info.numTerms; j++) {
+        int termId = info.sortedTerms[j];
+        result.append("\t'" + info.text(termId, termPool) + "':" + numPositions(info, termId) + ":");
+        result.append(positionsToString(info, termId)); // ignore offsets
         result.append("\n");
-        numPositions += numPositions(positions);
-        numChars += term.length();
+        numPositions += numPositions(info, termId);
+        numChars += info.termLength[termId];
       }
       
-      result.append("\tterms=" + info.sortedTerms.length);
+      result.append("\tterms=" + info.numTerms);
       result.append(", positions=" + numPositions);
       result.append(", Kchars=" + (numChars/1000.0f));
       result.append("\n");
       sumPositions += numPositions;
       sumChars += numChars;
-      sumTerms += info.sortedTerms.length;
+      sumTerms += info.numTerms;
     }
     
     result.append("\nfields=" + sortedFields.length);
@@ -573,155 +684,235 @@ public class MemoryIndex implements Serializable {
     return result.toString();
   }
   
+  /** returns the first few positions (without offsets); debug only */
+  private String positionsToString(Info info, int termId) {
+    int s = numPositions(info, termId);
+    int len = Math.min(10, s); // avoid printing huge lists
+    int start = info.postingStart[termId];
+    StringBuilder buf = new StringBuilder(4*len);
+    buf.append("[");
+    for (int i = 0; i < len; i++) {
+      buf.append(info.postings[start + i*stride]);
+      if (i < len-1) buf.append(", ");
+    }
+    if (len != s) buf.append(", ..."); // and some more...
+    buf.append("]");
+    return buf.toString();
+  }
+  
   
   ///////////////////////////////////////////////////////////////////////////////
   // Nested classes:
   ///////////////////////////////////////////////////////////////////////////////
   /**
-   * Index data structure for a field; Contains the tokenized term texts and
-   * their positions.
+   * Index data structure for a field; Contains the ids of its terms, whose
+   * texts live in the shared term pool, and their positions. All data is kept
+   * in primitive arrays that are reused after {@link MemoryIndex#reset()}.
    */
   private static final class Info implements Serializable {
     
+    /** Name of this field */
+    private String name;
+    
+    /** Number of distinct terms; term ids are 0 .. numTerms-1 in order of first occurrence */
+    private int numTerms;
+    
+    /** Start and length of each term's text in the term pool, by term id */
+    private int[] termStart = new int[8];
+    private int[] termLength = new int[8];
+    
+    /** Open addressing hash of the term texts: termId + 1, or 0 for an empty slot */
+    private int[] hash = new int[16];
+    
     /**
-     * Term strings and their positions for this field: Map <String
-     * termText, ArrayIntList positions>
+     * Positions (and offsets) of all terms, grouped by term: those of term id
+     * are postings[postingStart[id] .. postingStart[id+1])
      */
-    private final HashMap<String,ArrayIntList> terms; 
+    private int[] postingStart = new int[10];
+    private int[] postings = new int[16];
+    
+    /** Term ids sorted ascending by term text; computed on demand */
+    private transient int[] sortedTerms;
+    private transient boolean sorted;
     
-    /** Terms sorted ascending by term text; computed on demand */
-    private transient Map.Entry<String,ArrayIntList>[] sortedTerms;
+    /** Term texts by term id, materialized on demand */
+    private transient String[] texts;
     
     /** Number of added tokens for this field */
-    private final int numTokens;
+    private int numTokens;
     
     /** Number of overlapping tokens for this field */
-    private final int numOverlapTokens;
+    private int numOverlapTokens;
     
     /** Boost factor for hits for this field */
-    private final float boost;
+    private float boost;
 
     /** Term for this field's fieldName, lazily computed on demand */
     public transient Term template;
 
-    private static final long serialVersionUID = 2882195016849084649L;  
+    private static final long serialVersionUID = 2882195016849084650L;  
 
-    public Info(HashMap<String,ArrayIntList> terms, int numTokens, int numOverlapTokens, float boost) {
-      this.terms = terms;
-      this.numTokens = numTokens;
-      this.numOverlapTokens = numOverlapTokens;
-      this.boost = boost;
+    /** prepares this instance for a new field */
+    void clear(String fieldName) {
+      if (!fieldName.equals(name)) template = null;
+      name = fieldName;
+      clearTexts();
+      numTerms = 0;
+      sorted = false;
+      Arrays.fill(hash, 0);
     }
     
-    /**
-     * Sorts hashed terms into ascending order, reusing memory along the
-     * way. Note that sorting is lazily delayed until required (often it's
-     * not required at all). If a sorted view is required then hashing +
-     * sort + binary search is still faster and smaller than TreeMap usage
-     * (which would be an alternative and somewhat more elegant approach,
-     * apart from more sophisticated Tries / prefix trees).
-     */
-    public void sortTerms() {
-      if (sortedTerms == null) sortedTerms = sort(terms);
-    }
-        
-    /** note that the frequency can be calculated as numPosition(getPositions(x)) */
-    public ArrayIntList getPositions(String term) {
-      return terms.get(term);
-    }
-
-    /** note that the frequency can be calculated as numPosition(getPositions(x)) */
-    public ArrayIntList getPositions(int pos) {
-      return sortedTerms[pos].getValue();
+    /** drops the materialized term texts, so that they can be collected */
+    void clearTexts() {
+      if (texts != null) Arrays.fill(texts, 0, Math.min(numTerms, texts.length), null);
     }
     
-    public float getBoost() {
-      return boost;
+    /** doubles the hash table */
+    void rehash(char[] pool) {
+      int[] newHash = new int[hash.length * 2];
+      int mask = newHash.length - 1;
+      for (int termId=0; termId < numTerms; termId++) {
+        int h = 0;
+        for (int i=termStart[termId], end=i+termLength[termId]; i < end; i++) h = 31*h + pool[i];
+        int slot = mix(h) & mask;
+        while (newHash[slot] != 0) slot = (slot + 1) & mask;
+        newHash[slot] = termId + 1;
+      }
+      hash = newHash;
     }
     
-  }
-  
-  
-  ///////////////////////////////////////////////////////////////////////////////
-  // Nested classes:
-  ///////////////////////////////////////////////////////////////////////////////
-  /**
-   * Efficient resizable auto-expanding list holding <code>int</code> elements;
-   * implemented with arrays.
-   */
-  private static final class ArrayIntList implements Serializable {
-
-    private int[] elements;
-    private int size = 0;
-    
-    private static final long serialVersionUID = 2282195016849084649L;  
+    /**
+     * Groups the recorded tokens by term with a counting sort: O(N), and no
+     * per-term objects. Positions of a term stay in ascending order.
+     */
+    void invert(int[] tokens, int used, int stride) {
+      int width = stride + 1;
+      if (postingStart.length < numTerms + 2) postingStart = ArrayUtil.grow(postingStart, numTerms + 2);
+      Arrays.fill(postingStart, 0, numTerms + 2, 0);
+      for (int i=0; i < used; i += width) postingStart[tokens[i] + 2] += stride;
+      for (int t=2; t < numTerms + 2; t++) postingStart[t] += postingStart[t-1];
       
-    public ArrayIntList() {
-      this(10);
-    }
-
-    public ArrayIntList(int initialCapacity) {
-      elements = new int[initialCapacity];
-    }
-
-    public void add(int elem) {
-      if (size == elements.length) ensureCapacity(size + 1);
-      elements[size++] = elem;
+      // postingStart[id+1] is now the start of id and serves as its write cursor;
+      // once filled it is the end of id, i.e. the start of id+1
+      int size = used / width * stride;
+      if (postings.length < size) postings = ArrayUtil.grow(postings, size);
+      for (int i=0; i < used; i += width) {
+        int at = postingStart[tokens[i] + 1];
+        for (int k=0; k < stride; k++) postings[at+k] = tokens[i+1+k];
+        postingStart[tokens[i] + 1] = at + stride;
+      }
     }
-
-    public void add(int pos, int start, int end) {
-      if (size + 3 > elements.length) ensureCapacity(size + 3);
-      elements[size] = pos;
-      elements[size+1] = start;
-      elements[size+2] = end;
-      size += 3;
+    
+    /**
+     * Sorts term ids ascending by term text. Note that sorting is lazily
+     * delayed until required (often it's not required at all).
+     */
+    void sortTerms(final char[] pool) {
+      if (sorted) return;
+      if (sortedTerms == null || sortedTerms.length < numTerms) 
+        sortedTerms = new int[ArrayUtil.oversize(numTerms, VM.INT)];
+      for (int i=0; i < numTerms; i++) sortedTerms[i] = i;
+      new SorterTemplate() {
+        private int pivot;
+        
+        @Override
+        protected void swap(int i, int j) {
+          int tmp = sortedTerms[i];
+          sortedTerms[i] = sortedTerms[j];
+          sortedTerms[j] = tmp;
+        }
+        
+        @Override
+        protected int compare(int i, int j) {
+          return compareTerms(pool, sortedTerms[i], sortedTerms[j]);
+        }
+        
+        @Override
+        protected void setPivot(int i) {
+          pivot = sortedTerms[i];
+        }
+        
+        @Override
+        protected int comparePivot(int j) {
+          return compareTerms(pool, pivot, sortedTerms[j]);
+        }
+      }.quickSort(0, numTerms - 1);
+      sorted = true;
     }
-
-    public int get(int index) {
-      if (index >= size) throwIndex(index);
-      return elements[index];
+    
+    private int compareTerms(char[] pool, int id1, int id2) {
+      int s1 = termStart[id1], l1 = termLength[id1];
+      int s2 = termStart[id2], l2 = termLength[id2];
+      int n = Math.min(l1, l2);
+      for (int i=0; i < n; i++) {
+        int c = pool[s1+i] - pool[s2+i];
+        if (c != 0) return c;
+      }
+      return l1 - l2;
     }
     
-    public int size() {
-      return size;
+    /** returns the id of the given term, or -1 if this field does not contain it */
+    int find(String text, char[] pool) {
+      int mask = hash.length - 1;
+      int slot = mix(text.hashCode()) & mask;
+      int termId;
+      while ((termId = hash[slot] - 1) >= 0) {
+        if (termLength[termId] == text.length() && compare(pool, termStart[termId], termLength[termId], text) == 0) 
+          return termId;
+        slot = (slot + 1) & mask;
+      }
+      return -1;
     }
     
-    public int[] toArray(int stride) {
-      int[] arr = new int[size() / stride];
-      if (stride == 1) {
-        System.arraycopy(elements, 0, arr, 0, size); // fast path
-      } else { 
-        for (int i=0, j=0; j < size; i++, j += stride) arr[i] = elements[j];
+    /** binary search in sortedTerms, with the same result convention as Arrays.binarySearch() */
+    int search(String text, char[] pool) {
+      int low = 0;
+      int high = numTerms - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int termId = sortedTerms[mid];
+        int c = compare(pool, termStart[termId], termLength[termId], text);
+        if (c < 0) low = mid + 1;
+        else if (c > 0) high = mid - 1;
+        else return mid;
       }
-      return arr;
+      return -(low + 1);
     }
     
-    private void ensureCapacity(int minCapacity) {
-      int newCapacity = Math.max(minCapacity, (elements.length * 3) / 2 + 1);
-      int[] newElements = new int[newCapacity];
-      System.arraycopy(elements, 0, newElements, 0, size);
-      elements = newElements;
+    /** returns the text of the given term, creating its String only once */
+    String text(int termId, char[] pool) {
+      if (texts == null || texts.length <= termId) {
+        String[] newTexts = new String[ArrayUtil.oversize(numTerms, VM.PTR)];
+        if (texts != null) System.arraycopy(texts, 0, newTexts, 0, texts.length);
+        texts = newTexts;
+      }
+      String text = texts[termId];
+      if (text == null) {
+        text = new String(pool, termStart[termId], termLength[termId]);
+        texts[termId] = text;
+      }
+      return text;
     }
-
-    private void throwIndex(int index) {
-      throw new IndexOutOfBoundsException("index: " + index
-            + ", size: " + size);
+    
+    public float getBoost() {
+      return boost;
     }
     
-    /** returns the first few positions (without offsets); debug only */
-    public String toString(int stride) {
-      int s = size() / stride;
-      int len = Math.min(10, s); // avoid printing huge lists
-      StringBuilder buf = new StringBuilder(4*len);
-      buf.append("[");
-      for (int i = 0; i < len; i++) {
-        buf.append(get(i*stride));
-        if (i < len-1) buf.append(", ");
+    int getMemorySize() {
+      int size = VM.sizeOfObject(9*VM.PTR + 3*VM.INT + VM.BOOLEAN + VM.FLOAT);
+      size += VM.sizeOfIntArray(termStart.length) + VM.sizeOfIntArray(termLength.length);
+      size += VM.sizeOfIntArray(hash.length);
+      size += VM.sizeOfIntArray(postingStart.length) + VM.sizeOfIntArray(postings.length);
+      if (sortedTerms != null) size += VM.sizeOfIntArray(sortedTerms.length);
+      if (texts != null) {
+        size += VM.sizeOfObjectArray(texts.length);
+        for (int i=0; i < texts.length; i++) {
+          if (texts[i] != null) size += VM.sizeOfString(texts[i].length());
+        }
       }
-      if (len != s) buf.append(", ..."); // and some more...
-      buf.append("]");
-      return buf.toString();
-    }   
+      return size;
+    }
+    
   }
   
   
@@ -743,19 +934,15 @@ public class MemoryIndex implements Serializable {
       readerFinishedListeners = Collections.synchronizedSet(new HashSet<ReaderFinishedListener>());
     }
     
-    private Info getInfo(String fieldName) {
-      return fields.get(fieldName);
-    }
-    
     private Info getInfo(int pos) {
-      return sortedFields[pos].getValue();
+      return sortedFields[pos];
     }
     
     @Override
     public int docFreq(Term term) {
-      Info info = getInfo(term.field());
+      Info info = MemoryIndex.this.getInfo(term.field());
       int freq = 0;
-      if (info != null) freq = info.getPositions(term.text()) != null ? 1 : 0;
+      if (info != null) freq = info.find(term.text(), termPool) >= 0 ? 1 : 0;
       if (DEBUG) System.err.println("MemoryIndexReader.docFreq: " + term + ", freq:" + freq);
       return freq;
     }
@@ -774,26 +961,26 @@ public class MemoryIndex implements Serializable {
       int j; // index into sortedFields
       
       sortFields();
-      if (sortedFields.length == 1 && sortedFields[0].getKey() == term.field()) {
+      if (sortedFields.length == 1 && sortedFields[0].name == term.field()) {
         j = 0; // fast path
       } else {
-        j = Arrays.binarySearch(sortedFields, term.field(), termComparator);
+        j = searchField(term.field());
       }
       
       if (j < 0) { // not found; choose successor
         j = -j -1; 
         i = 0;
-        if (j < sortedFields.length) getInfo(j).sortTerms();
+        if (j < sortedFields.length) getInfo(j).sortTerms(termPool);
       } else { // found
         Info info = getInfo(j);
-        info.sortTerms();
-        i = Arrays.binarySearch(info.sortedTerms, term.text(), termComparator);
+        info.sortTerms(termPool);
+        i = info.search(term.text(), termPool);
         if (i < 0) { // not found; choose successor
           i = -i -1;
-          if (i >= info.sortedTerms.length) { // move to next successor
+          if (i >= info.numTerms) { // move to next successor
             j++;
             i = 0;
-            if (j < sortedFields.length) getInfo(j).sortTerms();
+            if (j < sortedFields.length) getInfo(j).sortTerms(termPool);
           }
         }
       }
@@ -810,13 +997,13 @@ public class MemoryIndex implements Serializable {
           if (DEBUG) System.err.println("TermEnum.next");
           if (srtFldsIdx >= sortedFields.length) return false;
           Info info = getInfo(srtFldsIdx);
-          if (++srtTermsIdx < info.sortedTerms.length) return true;
+          if (++srtTermsIdx < info.numTerms) return true;
   
           // move to successor
           srtFldsIdx++;
           srtTermsIdx = 0;
           if (srtFldsIdx >= sortedFields.length) return false;
-          getInfo(srtFldsIdx).sortTerms();
+          getInfo(srtFldsIdx).sortTerms(termPool);
           return true;
         }
   
@@ -825,9 +1012,8 @@ public class MemoryIndex implements Serializable {
           if (DEBUG) System.err.println("TermEnum.term: " + srtTermsIdx);
           if (srtFldsIdx >= sortedFields.length) return null;
           Info info = getInfo(srtFldsIdx);
-          if (srtTermsIdx >= info.sortedTerms.length) return null;
-//          if (DEBUG) System.err.println("TermEnum.term: " + i + ", " + info.sortedTerms[i].getKey());
-          return createTerm(info, srtFldsIdx, info.sortedTerms[srtTermsIdx].getKey());
+          if (srtTermsIdx >= info.numTerms) return null;
+          return createTerm(info, info.text(info.sortedTerms[srtTermsIdx], termPool));
         }
         
         @Override
@@ -835,8 +1021,8 @@ public class MemoryIndex implements Serializable {
           if (DEBUG) System.err.println("TermEnum.docFreq");
           if (srtFldsIdx >= sortedFields.length) return 0;
           Info info = getInfo(srtFldsIdx);
-          if (srtTermsIdx >= info.sortedTerms.length) return 0;
-          return numPositions(info.getPositions(srtTermsIdx));
+          if (srtTermsIdx >= info.numTerms) return 0;
+          return numPositions(info, info.sortedTerms[srtTermsIdx]);
         }
   
         @Override
@@ -845,12 +1031,10 @@ public class MemoryIndex implements Serializable {
         }
         
         /** Returns a new Term object, minimizing String.intern() overheads. */
-        private Term createTerm(Info info, int pos, String text) { 
-          // Assertion: sortFields has already been called before
+        private Term createTerm(Info info, String text) { 
           Term template = info.template;
           if (template == null) { // not yet cached?
-            String fieldName = sortedFields[pos].getKey();
-            template = new Term(fieldName);
+            template = new Term(info.name);
             info.template = template;
           }
           
@@ -859,6 +1043,20 @@ public class MemoryIndex implements Serializable {
         
       };
     }
+    
+    /** binary search in sortedFields, with the same result convention as Arrays.binarySearch() */
+    private int searchField(String fieldName) {
+      int low = 0;
+      int high = sortedFields.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int c = sortedFields[mid].name.compareTo(fieldName);
+        if (c < 0) low = mid + 1;
+        else if (c > 0) high = mid - 1;
+        else return mid;
+      }
+      return -(low + 1);
+    }
   
     @Override
     public TermPositions termPositions() {
@@ -867,8 +1065,9 @@ public class MemoryIndex implements Serializable {
       return new TermPositions() {
   
         private boolean hasNext;
-        private int cursor = 0;
-        private ArrayIntList current;
+        private Info info;
+        private int termId = -1;
+        private int cursor;
         private Term term;
         
         public void seek(Term term) {
@@ -876,11 +1075,12 @@ public class MemoryIndex implements Serializable {
           if (DEBUG) System.err.println(".seek: " + term);
           if (term == null) {
             hasNext = true;  // term==null means match all docs
+            termId = -1;
           } else {
-            Info info = getInfo(term.field());
-            current = info == null ? null : info.getPositions(term.text());
-            hasNext = (current != null);
-            cursor = 0;
+            info = MemoryIndex.this.getInfo(term.field());
+            termId = info == null ? -1 : info.find(term.text(), termPool);
+            hasNext = (termId >= 0);
+            if (hasNext) cursor = info.postingStart[termId];
           }
         }
   
@@ -895,13 +1095,13 @@ public class MemoryIndex implements Serializable {
         }
   
         public int freq() {
-          int freq = current != null ? numPositions(current) : (term == null ? 1 : 0);
+          int freq = termId >= 0 ? numPositions(info, termId) : (term == null ? 1 : 0);
           if (DEBUG) System.err.println(".freq: " + freq);
           return freq;
         }
   
         public boolean next() {
-          if (DEBUG) System.err.println(".next: " + current + ", oldHasNext=" + hasNext);
+          if (DEBUG) System.err.println(".next: " + termId + ", oldHasNext=" + hasNext);
           boolean next = hasNext;
           hasNext = false;
           return next;
@@ -926,7 +1126,9 @@ public class MemoryIndex implements Serializable {
         }
         
         public int nextPosition() { // implements TermPositions
-          int pos = current.get(cursor);
+          if (termId < 0 || cursor >= info.postingStart[termId+1]) 
+            throw new IndexOutOfBoundsException("no more positions");
+          int pos = info.postings[cursor];
           cursor += stride;
           if (DEBUG) System.err.println(".nextPosition: " + pos);
           return pos;
@@ -965,11 +1167,9 @@ public class MemoryIndex implements Serializable {
     @Override
     public TermFreqVector[] getTermFreqVectors(int docNumber) {
       if (DEBUG) System.err.println("MemoryIndexReader.getTermFreqVectors");
-      TermFreqVector[] vectors = new TermFreqVector[fields.size()];
-//      if (vectors.length == 0) return null;
-      Iterator<String> iter = fields.keySet().iterator();
+      TermFreqVector[] vectors = new TermFreqVector[numFields];
       for (int i=0; i < vectors.length; i++) {
-        vectors[i] = getTermFreqVector(docNumber, iter.next());
+        vectors[i] = getTermFreqVector(docNumber, infos[i].name);
       }
       return vectors;
     }
@@ -979,10 +1179,9 @@ public class MemoryIndex implements Serializable {
       {
           if (DEBUG) System.err.println("MemoryIndexReader.getTermFreqVectors");
 
-    //      if (vectors.length == 0) return null;
-          for (final String fieldName : fields.keySet())
+          for (int i=0; i < numFields; i++)
           {
-            getTermFreqVector(docNumber, fieldName, mapper);
+            getTermFreqVector(docNumber, infos[i].name, mapper);
           }
       }
 
@@ -990,67 +1189,57 @@ public class MemoryIndex implements Serializable {
       public void getTermFreqVector(int docNumber, String field, TermVectorMapper mapper) throws IOException
       {
         if (DEBUG) System.err.println("MemoryIndexReader.getTermFreqVector");
-        final Info info = getInfo(field);
+        final Info info = MemoryIndex.this.getInfo(field);
           if (info == null){
               return;
           }
-          info.sortTerms();
-          mapper.setExpectations(field, info.sortedTerms.length, stride != 1, true);
-          for (int i = info.sortedTerms.length; --i >=0;){
-
-              ArrayIntList positions = info.sortedTerms[i].getValue();
-              int size = positions.size();
-              org.apache.lucene.index.TermVectorOffsetInfo[] offsets =
-                new org.apache.lucene.index.TermVectorOffsetInfo[size / stride];
-
-              for (int k=0, j=1; j < size; k++, j += stride) {
-                int start = positions.get(j);
-                int end = positions.get(j+1);
-                offsets[k] = new org.apache.lucene.index.TermVectorOffsetInfo(start, end);
-              }
-              mapper.map(info.sortedTerms[i].getKey(),
-                         numPositions(info.sortedTerms[i].getValue()),
-                         offsets, (info.sortedTerms[i].getValue()).toArray(stride));
+          info.sortTerms(termPool);
+          mapper.setExpectations(field, info.numTerms, stride != 1, true);
+          for (int i = info.numTerms; --i >=0;){
+              int termId = info.sortedTerms[i];
+              mapper.map(info.text(termId, termPool), numPositions(info, termId),
+                         offsets(info, termId), positions(info, termId));
           }
       }
 
       @Override
       public TermFreqVector getTermFreqVector(int docNumber, final String fieldName) {
       if (DEBUG) System.err.println("MemoryIndexReader.getTermFreqVector");
-      final Info info = getInfo(fieldName);
+      final Info info = MemoryIndex.this.getInfo(fieldName);
       if (info == null) return null; // TODO: or return empty vector impl???
-      info.sortTerms();
+      info.sortTerms(termPool);
       
       return new TermPositionVector() { 
   
-        private final Map.Entry<String,ArrayIntList>[] sortedTerms = info.sortedTerms;
+        private final int[] sortedTerms = info.sortedTerms;
+        private final int numTerms = info.numTerms;
         
         public String getField() {
           return fieldName;
         }
   
         public int size() {
-          return sortedTerms.length;
+          return numTerms;
         }
   
         public String[] getTerms() {
-          String[] terms = new String[sortedTerms.length];
-          for (int i=sortedTerms.length; --i >= 0; ) {
-            terms[i] = sortedTerms[i].getKey();
+          String[] terms = new String[numTerms];
+          for (int i=numTerms; --i >= 0; ) {
+            terms[i] = info.text(sortedTerms[i], termPool);
           }
           return terms;
         }
   
         public int[] getTermFrequencies() {
-          int[] freqs = new int[sortedTerms.length];
-          for (int i=sortedTerms.length; --i >= 0; ) {
-            freqs[i] = numPositions(sortedTerms[i].getValue());
+          int[] freqs = new int[numTerms];
+          for (int i=numTerms; --i >= 0; ) {
+            freqs[i] = numPositions(info, sortedTerms[i]);
           }
           return freqs;
         }
   
         public int indexOf(String term) {
-          int i = Arrays.binarySearch(sortedTerms, term, termComparator);
+          int i = info.search(term, termPool);
           return i >= 0 ? i : -1;
         }
   
@@ -1064,24 +1253,12 @@ public class MemoryIndex implements Serializable {
         
         // lucene >= 1.4.3
         public int[] getTermPositions(int index) {
-          return sortedTerms[index].getValue().toArray(stride);
+          return positions(info, sortedTerms[index]);
         } 
         
         // lucene >= 1.9 (remove this method for lucene-1.4.3)
         public org.apache.lucene.index.TermVectorOffsetInfo[] getOffsets(int index) {
-          if (stride == 1) return null; // no offsets stored
-          
-          ArrayIntList positions = sortedTerms[index].getValue();
-          int size = positions.size();
-          org.apache.lucene.index.TermVectorOffsetInfo[] offsets = 
-            new org.apache.lucene.index.TermVectorOffsetInfo[size / stride];
-          
-          for (int i=0, j=1; j < size; i++, j += stride) {
-            int start = positions.get(j);
-            int end = positions.get(j+1);
-            offsets[i] = new org.apache.lucene.index.TermVectorOffsetInfo(start, end);
-          }
-          return offsets;
+          return offsets(info, sortedTerms[index]);
         }
 
       };
@@ -1100,13 +1277,14 @@ public class MemoryIndex implements Serializable {
     private byte[] cachedNorms;
     private String cachedFieldName;
     private Similarity cachedSimilarity;
+    private int cachedGeneration;
     
     @Override
     public byte[] norms(String fieldName) {
       byte[] norms = cachedNorms;
       Similarity sim = getSimilarity();
-      if (fieldName != cachedFieldName || sim != cachedSimilarity) { // not cached?
-        Info info = getInfo(fieldName);
+      if (fieldName != cachedFieldName || sim != cachedSimilarity || generation != cachedGeneration) { // not cached?
+        Info info = MemoryIndex.this.getInfo(fieldName);
         int numTokens = info != null ? info.numTokens : 0;
         int numOverlapTokens = info != null ? info.numOverlapTokens : 0;
         float boost = info != null ? info.getBoost() : 1.0f; 
@@ -1119,6 +1297,7 @@ public class MemoryIndex implements Serializable {
         cachedNorms = norms;
         cachedFieldName = fieldName;
         cachedSimilarity = sim;
+        cachedGeneration = generation;
         if (DEBUG) System.err.println("MemoryIndexReader.norms: " + fieldName + ":" + n + ":" + norm + ":" + numTokens);
       }
       return norms;
@@ -1139,7 +1318,7 @@ public class MemoryIndex implements Serializable {
     @Override
     public int numDocs() {
       if (DEBUG) System.err.println("MemoryIndexReader.numDocs");
-      return fields.size() > 0 ? 1 : 0;
+      return numFields > 0 ? 1 : 0;
     }
   
     @Override
@@ -1206,11 +1385,13 @@ public class MemoryIndex implements Serializable {
       if (fieldOption == FieldOption.TERMVECTOR_WITH_POSITION_OFFSET && stride == 1) 
         return Collections.<String>emptySet();
       
-      return Collections.unmodifiableSet(fields.keySet());
+      Set<String> names = new HashSet<String>();
+      for (int i=0; i < numFields; i++) names.add(infos[i].name);
+      return Collections.unmodifiableSet(names);
     }
   }
 
-  
+
   ///////////////////////////////////////////////////////////////////////////////
   // Nested classes:
   ///////////////////////////////////////////////////////////////////////////////
@@ -1267,20 +1448,6 @@ public class MemoryIndex implements Serializable {
         return sizeOfObject(3*INT + PTR) + sizeOfCharArray(len);
     }
     
-    public static int sizeOfHashMap(int len) {
-        return sizeOfObject(4*PTR + 4*INT) + sizeOfObjectArray(len) 
-            + len * sizeOfObject(3*PTR + INT); // entries
-    }
-    
-    // note: does not include referenced objects
-    public static int sizeOfArrayList(int len) {
-        return sizeOfObject(PTR + 2*INT) + sizeOfObjectArray(len); 
-    }
-    
-    public static int sizeOfArrayIntList(int len) {
-        return sizeOfObject(PTR + INT) + sizeOfIntArray(len);
-    }
-    
     /** logarithm to the base 2. Example: log2(4) == 2, log2(8) == 3 */
     private static double log2(double value) {
       return Math.log(value) / Math.log(2);
@@ -155,6 +155,117 @@ public class Highlighter {
     }
 
 
+    /**
+     * Snippet mode: returns the best window of about <code>fragmentSize</code> chars of the text,
+     * with the query terms marked up. Unlike {@link #getBestFragment(org.apache.lucene.analysis.TokenStream, String)}
+     * the text is read only until a window that contains every query term
+     * (see {@link QueryScorer#isFragmentComplete()}) has been filled, and never beyond
+     * {@link #getMaxDocCharsToAnalyze()} chars, so a long text costs no more than the preview taken from it.
+     * Windows are cut at the first token group boundary past <code>fragmentSize</code> chars;
+     * the textFragmenter is not used.
+     *
+     * @param tokenStream  a stream of tokens identified in the text parameter, including offset information
+     * @param text         text to highlight terms in
+     * @param fragmentSize target length of the snippet, in chars of the original text
+     * @return highlighted snippet or null if no terms found
+     * @throws InvalidTokenOffsetsException thrown if any token's endOffset exceeds the provided text's length
+     */
+    public final String getBestSnippet(TokenStream tokenStream, String text, int fragmentSize)
+            throws IOException, InvalidTokenOffsetsException {
+        CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAtt = tokenStream.addAttribute(OffsetAttribute.class);
+        tokenStream.addAttribute(PositionIncrementAttribute.class);
+        tokenStream.reset();
+
+        int maxChars = Math.min(maxDocCharsToAnalyze, text.length());
+        if (fragmentScorer instanceof QueryScorer) {
+            ((QueryScorer) fragmentScorer).setMaxDocCharsToAnalyze(maxChars);
+        }
+        TokenStream newStream = fragmentScorer.init(tokenStream);
+        if (newStream != null) {
+            tokenStream = newStream;
+        }
+
+        StringBuilder window = new StringBuilder();
+        fragmentScorer.startFragment(new TextFragment(window, 0, 0));
+        String best = null;
+        float bestScore = 0;
+        int windowStart = 0;
+        int lastEndOffset = 0;
+        try {
+            TokenGroup tokenGroup = new TokenGroup(tokenStream);
+            for (boolean next = tokenStream.incrementToken(); next && (offsetAtt.startOffset() < maxChars);
+                 next = tokenStream.incrementToken()) {
+                if ((offsetAtt.endOffset() > text.length()) || (offsetAtt.startOffset() > text.length())) {
+                    throw new InvalidTokenOffsetsException("Token " + termAtt.toString()
+                            + " exceeds length of provided text sized " + text.length());
+                }
+                if ((tokenGroup.numTokens > 0) && (tokenGroup.isDistinct())) {
+                    lastEndOffset = markUp(tokenGroup, text, window, lastEndOffset);
+                    tokenGroup.clear();
+
+                    if (offsetAtt.startOffset() >= windowStart + fragmentSize) {
+                        // the window is full
+                        float score = fragmentScorer.getFragmentScore();
+                        if (score > bestScore) {
+                            bestScore = score;
+                            best = window.toString();
+                        }
+                        if (isFragmentComplete()) {
+                            return best;
+                        }
+                        window.setLength(0);
+                        windowStart = lastEndOffset;
+                        fragmentScorer.startFragment(new TextFragment(window, 0, 0));
+                    }
+                }
+                tokenGroup.addToken(fragmentScorer.getTokenScore());
+            }
+
+            if (tokenGroup.numTokens > 0) {
+                lastEndOffset = markUp(tokenGroup, text, window, lastEndOffset);
+            }
+            // fill the last window with the text after its last token
+            int end = Math.min(text.length(), windowStart + fragmentSize);
+            if (end > lastEndOffset) {
+                window.append(encoder.encodeText(text.substring(lastEndOffset, end)));
+            }
+            if (fragmentScorer.getFragmentScore() > bestScore) {
+                best = window.toString();
+            }
+            return best;
+        } finally {
+            if (tokenStream != null) {
+                try {
+                    tokenStream.end();
+                    tokenStream.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the marked up token group, and the text between it and the previous group
+     *
+     * @return the new end offset of the text consumed
+     */
+    private int markUp(TokenGroup tokenGroup, String text, StringBuilder out, int lastEndOffset) {
+        int startOffset = tokenGroup.matchStartOffset;
+        int endOffset = tokenGroup.matchEndOffset;
+        String tokenText = text.substring(startOffset, endOffset);
+        String markedUpText = formatter.highlightTerm(encoder.encodeText(tokenText), tokenGroup);
+        //store any whitespace etc from between this and last group
+        if (startOffset > lastEndOffset)
+            out.append(encoder.encodeText(text.substring(lastEndOffset, startOffset)));
+        out.append(markedUpText);
+        return Math.max(endOffset, lastEndOffset);
+    }
+
+    private boolean isFragmentComplete() {
+        return (fragmentScorer instanceof QueryScorer) && ((QueryScorer) fragmentScorer).isFragmentComplete();
+    }
+
     /**
      * Low level api to get the most relevant (formatted) sections of the document.
      * This method has been made public to allow visibility of score information held in TextFragment objects.
@@ -0,0 +1,220 @@
+package org.apache.lucene.search.highlight;
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * The parts of a {@link Query} that {@link WeightedSpanTermExtractor} would
+ * extract for every highlighted text, computed once so that they can be
+ * shared by all highlight calls for the same query (e.g. every field of
+ * every hit of a search). Pass it to {@link QueryScorer#QueryScorer(PreparedQuery)}.
+ * <p>
+ * Term queries become their weighted terms; phrase and multi-phrase queries
+ * are converted to span queries and their terms extracted. If the query
+ * consists of term queries only, the weighted terms do not depend on the
+ * text at all and the same read-only map is handed to every scorer.
+ * Otherwise only the span positions (and the expansion of multi-term
+ * queries such as prefix queries) are computed per text.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class PreparedQuery {
+
+  final String fieldName;
+  final String defaultField;
+  final boolean expandMultiTermQuery;
+
+  /** the extracted parts, in query order */
+  final List<Part> parts = new ArrayList<Part>();
+
+  /** the weighted terms if no part depends on the text, else null */
+  final Map<String,WeightedSpanTerm> staticTerms;
+
+  /**
+   * @param query Query to use for highlighting
+   * @param field Field to highlight - pass null to ignore fields
+   */
+  public PreparedQuery(Query query, String field) {
+    this(query, field, null, true);
+  }
+
+  /**
+   * @param query Query to use for highlighting
+   * @param field Field to highlight - pass null to ignore fields
+   * @param defaultField The default field for queries with the field name unspecified
+   * @param expandMultiTermQuery true if multi-term queries should be expanded
+   */
+  public PreparedQuery(Query query, String field, String defaultField, boolean expandMultiTermQuery) {
+    this.fieldName = field == null ? null : StringHelper.intern(field);
+    this.defaultField = defaultField == null ? null : StringHelper.intern(defaultField);
+    this.expandMultiTermQuery = expandMultiTermQuery;
+    compile(query);
+
+    boolean textIndependent = true;
+    for (Part part : parts) {
+      if (part.terms == null) {
+        textIndependent = false;
+        break;
+      }
+    }
+    if (textIndependent) {
+      Map<String,WeightedSpanTerm> terms = new WeightedSpanTermExtractor.PositionCheckingMap<String>();
+      for (Part part : parts) {
+        part.putTerms(terms);
+      }
+      staticTerms = Collections.unmodifiableMap(terms);
+    } else {
+      staticTerms = null;
+    }
+  }
+
+  /** mirrors WeightedSpanTermExtractor.extract(Query, Map) */
+  private void compile(Query query) {
+    if (query instanceof BooleanQuery) {
+      BooleanClause[] queryClauses = ((BooleanQuery) query).getClauses();
+
+      for (int i = 0; i < queryClauses.length; i++) {
+        if (!queryClauses[i].isProhibited()) {
+          compile(queryClauses[i].getQuery());
+        }
+      }
+    } else if (query instanceof PhraseQuery) {
+      addSpan(WeightedSpanTermExtractor.toSpanQuery((PhraseQuery) query));
+    } else if (query instanceof TermQuery) {
+      Set<Term> nonWeightedTerms = new HashSet<Term>();
+      query.extractTerms(nonWeightedTerms);
+      parts.add(new Part(query.getBoost(), texts(nonWeightedTerms)));
+    } else if (query instanceof SpanQuery) {
+      addSpan((SpanQuery) query);
+    } else if (query instanceof FilteredQuery) {
+      compile(((FilteredQuery) query).getQuery());
+    } else if (query instanceof DisjunctionMaxQuery) {
+      for (Iterator<Query> iterator = ((DisjunctionMaxQuery) query).iterator(); iterator.hasNext();) {
+        compile(iterator.next());
+      }
+    } else if (query instanceof MultiTermQuery && expandMultiTermQuery) {
+      // the expansion depends on the terms of the text
+      MultiTermQuery mtq = (MultiTermQuery) query;
+      if (mtq.getRewriteMethod() != MultiTermQuery.SCORING_BOOLEAN_QUERY_REWRITE) {
+        mtq = (MultiTermQuery) mtq.clone();
+        mtq.setRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_QUERY_REWRITE);
+      }
+      parts.add(new Part(mtq));
+    } else if (query instanceof MultiPhraseQuery) {
+      SpanQuery sp = WeightedSpanTermExtractor.toSpanQuery((MultiPhraseQuery) query);
+      if (sp != null) {
+        addSpan(sp);
+      }
+    }
+  }
+
+  private void addSpan(SpanQuery spanQuery) {
+    Set<String> fieldNames = WeightedSpanTermExtractor.spanQueryFields(spanQuery, fieldName, defaultField);
+    boolean mustRewrite = WeightedSpanTermExtractor.mustRewriteQuery(spanQuery, expandMultiTermQuery);
+    Set<Term> nonWeightedTerms = null;
+    if (!mustRewrite) {
+      nonWeightedTerms = new HashSet<Term>();
+      spanQuery.extractTerms(nonWeightedTerms);
+    }
+    parts.add(new Part(spanQuery, fieldNames, mustRewrite, nonWeightedTerms));
+  }
+
+  /** texts of the terms that pass WeightedSpanTermExtractor.fieldNameComparator() */
+  private String[] texts(Set<Term> terms) {
+    List<String> texts = new ArrayList<String>(terms.size());
+    for (Term term : terms) {
+      String field = term.field();
+      if (fieldName == null || field == fieldName || field == defaultField) {
+        texts.add(term.text());
+      }
+    }
+    return texts.toArray(new String[texts.size()]);
+  }
+
+  /**
+   * One extracted part of the query: the weighted terms of a term query,
+   * a span query with its fields and terms, or a multi-term query.
+   */
+  static final class Part {
+    final float boost;
+    /** terms of a term query, null for the other kinds */
+    final String[] terms;
+    final SpanQuery spanQuery;
+    final Set<String> fieldNames;
+    final boolean mustRewrite;
+    /** terms of the span query, null if it must be rewritten per text */
+    final Set<Term> spanTerms;
+    final MultiTermQuery multiTermQuery;
+
+    Part(float boost, String[] terms) {
+      this.boost = boost;
+      this.terms = terms;
+      this.spanQuery = null;
+      this.fieldNames = null;
+      this.mustRewrite = false;
+      this.spanTerms = null;
+      this.multiTermQuery = null;
+    }
+
+    Part(SpanQuery spanQuery, Set<String> fieldNames, boolean mustRewrite, Set<Term> spanTerms) {
+      this.boost = spanQuery.getBoost();
+      this.terms = null;
+      this.spanQuery = spanQuery;
+      this.fieldNames = fieldNames;
+      this.mustRewrite = mustRewrite;
+      this.spanTerms = spanTerms;
+      this.multiTermQuery = null;
+    }
+
+    Part(MultiTermQuery multiTermQuery) {
+      this.boost = multiTermQuery.getBoost();
+      this.terms = null;
+      this.spanQuery = null;
+      this.fieldNames = null;
+      this.mustRewrite = false;
+      this.spanTerms = null;
+      this.multiTermQuery = multiTermQuery;
+    }
+
+    /** puts new weighted terms of a term query part */
+    void putTerms(Map<String,WeightedSpanTerm> map) {
+      for (int i = 0; i < terms.length; i++) {
+        map.put(terms[i], new WeightedSpanTerm(boost, terms[i]));
+      }
+    }
+  }
+}
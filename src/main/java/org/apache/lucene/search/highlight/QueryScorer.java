@@ -50,6 +50,7 @@ public class QueryScorer implements Scorer {
   private PositionIncrementAttribute posIncAtt;
   private boolean expandMultiTermQuery = true;
   private Query query;
+  private PreparedQuery prepared;
   private String field;
   private IndexReader reader;
   private boolean skipInitExtractor;
@@ -100,6 +101,16 @@ public class QueryScorer implements Scorer {
     init(query, field, null, true);
   }
 
+  /**
+   * @param prepared Query to use for highlighting, with the terms extracted once for
+   *        all highlighted texts; the field and default field of the prepared query are used
+   */
+  public QueryScorer(PreparedQuery prepared) {
+    this.prepared = prepared;
+    this.query = null;
+    this.expandMultiTermQuery = prepared.expandMultiTermQuery;
+  }
+
   /**
    * @param weightedTerms an array of pre-created {@link WeightedSpanTerm}s
    */
@@ -179,7 +190,7 @@ public class QueryScorer implements Scorer {
     termAtt = tokenStream.addAttribute(CharTermAttribute.class);
     posIncAtt = tokenStream.addAttribute(PositionIncrementAttribute.class);
     if(!skipInitExtractor) {
-      if(fieldWeightedSpanTerms != null) {
+      if(fieldWeightedSpanTerms != null && prepared == null) {
         fieldWeightedSpanTerms.clear();
       }
       return initExtractor(tokenStream);
@@ -213,7 +224,9 @@ public class QueryScorer implements Scorer {
     qse.setMaxDocCharsToAnalyze(maxCharsToAnalyze);
     qse.setExpandMultiTermQuery(expandMultiTermQuery);
     qse.setWrapIfNotCachingTokenFilter(wrapToCaching);
-    if (reader == null) {
+    if (prepared != null) {
+      this.fieldWeightedSpanTerms = qse.getWeightedSpanTerms(prepared, tokenStream);
+    } else if (reader == null) {
       this.fieldWeightedSpanTerms = qse.getWeightedSpanTerms(query,
           tokenStream, field);
     } else {
@@ -237,6 +250,13 @@ public class QueryScorer implements Scorer {
     totalScore = 0;
   }
   
+  /**
+   * @return true if every query term has been found in the current fragment
+   */
+  public boolean isFragmentComplete() {
+    return fieldWeightedSpanTerms != null && foundTerms.size() >= fieldWeightedSpanTerms.size();
+  }
+
   /**
    * @return true if multi-term queries should be expanded
    */
@@ -99,41 +99,7 @@ public class WeightedSpanTermExtractor {
         }
       }
     } else if (query instanceof PhraseQuery) {
-      PhraseQuery phraseQuery = ((PhraseQuery) query);
-      Term[] phraseQueryTerms = phraseQuery.getTerms();
-      SpanQuery[] clauses = new SpanQuery[phraseQueryTerms.length];
-      for (int i = 0; i < phraseQueryTerms.length; i++) {
-        clauses[i] = new SpanTermQuery(phraseQueryTerms[i]);
-      }
-      int slop = phraseQuery.getSlop();
-      int[] positions = phraseQuery.getPositions();
-      // add largest position increment to slop
-      if (positions.length > 0) {
-        int lastPos = positions[0];
-        int largestInc = 0;
-        int sz = positions.length;
-        for (int i = 1; i < sz; i++) {
-          int pos = positions[i];
-          int inc = pos - lastPos;
-          if (inc > largestInc) {
-            largestInc = inc;
-          }
-          lastPos = pos;
-        }
-        if(largestInc > 1) {
-          slop += largestInc;
-        }
-      }
-
-      boolean inorder = false;
-
-      if (slop == 0) {
-        inorder = true;
-      }
-
-      SpanNearQuery sp = new SpanNearQuery(clauses, slop, inorder);
-      sp.setBoost(query.getBoost());
-      extractWeightedSpanTerms(terms, sp);
+      extractWeightedSpanTerms(terms, toSpanQuery((PhraseQuery) query));
     } else if (query instanceof TermQuery) {
       extractWeightedTerms(terms, query);
     } else if (query instanceof SpanQuery) {
@@ -158,55 +124,106 @@ public class WeightedSpanTermExtractor {
         extract(query.rewrite(ir), terms);
       }
     } else if (query instanceof MultiPhraseQuery) {
-      final MultiPhraseQuery mpq = (MultiPhraseQuery) query;
-      final List<Term[]> termArrays = mpq.getTermArrays();
-      final int[] positions = mpq.getPositions();
-      if (positions.length > 0) {
-
-        int maxPosition = positions[positions.length - 1];
-        for (int i = 0; i < positions.length - 1; ++i) {
-          if (positions[i] > maxPosition) {
-            maxPosition = positions[i];
-          }
+      SpanQuery sp = toSpanQuery((MultiPhraseQuery) query);
+      if (sp != null) {
+        extractWeightedSpanTerms(terms, sp);
+      }
+    }
+  }
+
+  /**
+   * Converts a <code>PhraseQuery</code> to the equivalent <code>SpanNearQuery</code>.
+   */
+  static SpanQuery toSpanQuery(PhraseQuery phraseQuery) {
+    Term[] phraseQueryTerms = phraseQuery.getTerms();
+    SpanQuery[] clauses = new SpanQuery[phraseQueryTerms.length];
+    for (int i = 0; i < phraseQueryTerms.length; i++) {
+      clauses[i] = new SpanTermQuery(phraseQueryTerms[i]);
+    }
+    int slop = phraseQuery.getSlop();
+    int[] positions = phraseQuery.getPositions();
+    // add largest position increment to slop
+    if (positions.length > 0) {
+      int lastPos = positions[0];
+      int largestInc = 0;
+      int sz = positions.length;
+      for (int i = 1; i < sz; i++) {
+        int pos = positions[i];
+        int inc = pos - lastPos;
+        if (inc > largestInc) {
+          largestInc = inc;
         }
+        lastPos = pos;
+      }
+      if(largestInc > 1) {
+        slop += largestInc;
+      }
+    }
 
-        @SuppressWarnings("unchecked")
-        final List<SpanQuery>[] disjunctLists = new List[maxPosition + 1];
-        int distinctPositions = 0;
+    boolean inorder = false;
 
-        for (int i = 0; i < termArrays.size(); ++i) {
-          final Term[] termArray = termArrays.get(i);
-          List<SpanQuery> disjuncts = disjunctLists[positions[i]];
-          if (disjuncts == null) {
-            disjuncts = (disjunctLists[positions[i]] = new ArrayList<SpanQuery>(termArray.length));
-            ++distinctPositions;
-          }
-          for (int j = 0; j < termArray.length; ++j) {
-            disjuncts.add(new SpanTermQuery(termArray[j]));
-          }
-        }
+    if (slop == 0) {
+      inorder = true;
+    }
 
-        int positionGaps = 0;
-        int position = 0;
-        final SpanQuery[] clauses = new SpanQuery[distinctPositions];
-        for (int i = 0; i < disjunctLists.length; ++i) {
-          List<SpanQuery> disjuncts = disjunctLists[i];
-          if (disjuncts != null) {
-            clauses[position++] = new SpanOrQuery(disjuncts
-                .toArray(new SpanQuery[disjuncts.size()]));
-          } else {
-            ++positionGaps;
-          }
-        }
+    SpanNearQuery sp = new SpanNearQuery(clauses, slop, inorder);
+    sp.setBoost(phraseQuery.getBoost());
+    return sp;
+  }
 
-        final int slop = mpq.getSlop();
-        final boolean inorder = (slop == 0);
+  /**
+   * Converts a <code>MultiPhraseQuery</code> to the equivalent <code>SpanNearQuery</code>,
+   * or returns null if it has no terms.
+   */
+  static SpanQuery toSpanQuery(MultiPhraseQuery mpq) {
+    final List<Term[]> termArrays = mpq.getTermArrays();
+    final int[] positions = mpq.getPositions();
+    if (positions.length == 0) {
+      return null;
+    }
 
-        SpanNearQuery sp = new SpanNearQuery(clauses, slop + positionGaps, inorder);
-        sp.setBoost(query.getBoost());
-        extractWeightedSpanTerms(terms, sp);
+    int maxPosition = positions[positions.length - 1];
+    for (int i = 0; i < positions.length - 1; ++i) {
+      if (positions[i] > maxPosition) {
+        maxPosition = positions[i];
       }
     }
+
+    @SuppressWarnings("unchecked")
+    final List<SpanQuery>[] disjunctLists = new List[maxPosition + 1];
+    int distinctPositions = 0;
+
+    for (int i = 0; i < termArrays.size(); ++i) {
+      final Term[] termArray = termArrays.get(i);
+      List<SpanQuery> disjuncts = disjunctLists[positions[i]];
+      if (disjuncts == null) {
+        disjuncts = (disjunctLists[positions[i]] = new ArrayList<SpanQuery>(termArray.length));
+        ++distinctPositions;
+      }
+      for (int j = 0; j < termArray.length; ++j) {
+        disjuncts.add(new SpanTermQuery(termArray[j]));
+      }
+    }
+
+    int positionGaps = 0;
+    int position = 0;
+    final SpanQuery[] clauses = new SpanQuery[distinctPositions];
+    for (int i = 0; i < disjunctLists.length; ++i) {
+      List<SpanQuery> disjuncts = disjunctLists[i];
+      if (disjuncts != null) {
+        clauses[position++] = new SpanOrQuery(disjuncts
+            .toArray(new SpanQuery[disjuncts.size()]));
+      } else {
+        ++positionGaps;
+      }
+    }
+
+    final int slop = mpq.getSlop();
+    final boolean inorder = (slop == 0);
+
+    SpanNearQuery sp = new SpanNearQuery(clauses, slop + positionGaps, inorder);
+    sp.setBoost(mpq.getBoost());
+    return sp;
   }
 
   /**
@@ -219,31 +236,28 @@ public class WeightedSpanTermExtractor {
    * @throws java.io.IOException
    */
   private void extractWeightedSpanTerms(Map<String,WeightedSpanTerm> terms, SpanQuery spanQuery) throws IOException {
-    Set<String> fieldNames;
+    extractWeightedSpanTerms(terms, spanQuery, spanQueryFields(spanQuery, fieldName, defaultField),
+        mustRewriteQuery(spanQuery, expandMultiTermQuery), null);
+  }
 
-    if (fieldName == null) {
-      fieldNames = new HashSet<String>();
-      collectSpanQueryFields(spanQuery, fieldNames);
-    } else {
-      fieldNames = new HashSet<String>(1);
-      fieldNames.add(fieldName);
-    }
-    // To support the use of the default field name
-    if (defaultField != null) {
-      fieldNames.add(defaultField);
-    }
-    
+  /**
+   * @param extractedTerms
+   *          the terms of <code>spanQuery</code> if already known and it need not be rewritten, else null
+   */
+  private void extractWeightedSpanTerms(Map<String,WeightedSpanTerm> terms, SpanQuery spanQuery,
+      Set<String> fieldNames, boolean mustRewriteQuery, Set<Term> extractedTerms) throws IOException {
     Map<String, SpanQuery> queries = new HashMap<String, SpanQuery>();
  
-    Set<Term> nonWeightedTerms = new HashSet<Term>();
-    final boolean mustRewriteQuery = mustRewriteQuery(spanQuery);
+    Set<Term> nonWeightedTerms = extractedTerms;
     if (mustRewriteQuery) {
+      nonWeightedTerms = new HashSet<Term>();
       for (final String field : fieldNames) {
         final SpanQuery rewrittenQuery = (SpanQuery) spanQuery.rewrite(getReaderForField(field));
         queries.put(field, rewrittenQuery);
         rewrittenQuery.extractTerms(nonWeightedTerms);
       }
-    } else {
+    } else if (nonWeightedTerms == null) {
+      nonWeightedTerms = new HashSet<Term>();
       spanQuery.extractTerms(nonWeightedTerms);
     }
 
@@ -390,6 +404,46 @@ public class WeightedSpanTermExtractor {
     return terms;
   }
 
+  /**
+   * Creates a Map of <code>WeightedSpanTerms</code> from a <code>PreparedQuery</code> and <code>TokenStream</code>.
+   * Only the parts of the query that depend on the text are evaluated; if there are none,
+   * the shared, read-only map of the prepared query is returned.
+   * 
+   * @param prepared
+   *          that caused hit
+   * @param tokenStream
+   *          of text to be highlighted
+   * @return Map containing WeightedSpanTerms
+   * @throws java.io.IOException
+   */
+  public Map<String,WeightedSpanTerm> getWeightedSpanTerms(PreparedQuery prepared, TokenStream tokenStream)
+      throws IOException {
+    if (prepared.staticTerms != null) {
+      return prepared.staticTerms;
+    }
+    this.fieldName = prepared.fieldName;
+    this.defaultField = prepared.defaultField;
+    this.expandMultiTermQuery = prepared.expandMultiTermQuery;
+
+    Map<String,WeightedSpanTerm> terms = new PositionCheckingMap<String>();
+    this.tokenStream = tokenStream;
+    try {
+      for (PreparedQuery.Part part : prepared.parts) {
+        if (part.terms != null) {
+          part.putTerms(terms);
+        } else if (part.spanQuery != null) {
+          extractWeightedSpanTerms(terms, part.spanQuery, part.fieldNames, part.mustRewrite, part.spanTerms);
+        } else {
+          extract(part.multiTermQuery, terms);
+        }
+      }
+    } finally {
+      closeReaders();
+    }
+
+    return terms;
+  }
+
   /**
    * Creates a Map of <code>WeightedSpanTerms</code> from the given <code>Query</code> and <code>TokenStream</code>. Uses a supplied
    * <code>IndexReader</code> to properly weight terms (for gradient highlighting).
@@ -443,7 +497,27 @@ public class WeightedSpanTermExtractor {
     return terms;
   }
   
-  private void collectSpanQueryFields(SpanQuery spanQuery, Set<String> fieldNames) {
+  /**
+   * Returns the fields whose spans are collected for <code>spanQuery</code>.
+   */
+  static Set<String> spanQueryFields(SpanQuery spanQuery, String fieldName, String defaultField) {
+    Set<String> fieldNames;
+
+    if (fieldName == null) {
+      fieldNames = new HashSet<String>();
+      collectSpanQueryFields(spanQuery, fieldNames);
+    } else {
+      fieldNames = new HashSet<String>(1);
+      fieldNames.add(fieldName);
+    }
+    // To support the use of the default field name
+    if (defaultField != null) {
+      fieldNames.add(defaultField);
+    }
+    return fieldNames;
+  }
+
+  private static void collectSpanQueryFields(SpanQuery spanQuery, Set<String> fieldNames) {
     if (spanQuery instanceof FieldMaskingSpanQuery) {
       collectSpanQueryFields(((FieldMaskingSpanQuery)spanQuery).getMaskedQuery(), fieldNames);
     } else if (spanQuery instanceof SpanFirstQuery) {
@@ -463,26 +537,27 @@ public class WeightedSpanTermExtractor {
     }
   }
   
-  private boolean mustRewriteQuery(SpanQuery spanQuery) {
+  static boolean mustRewriteQuery(SpanQuery spanQuery, boolean expandMultiTermQuery) {
     if (!expandMultiTermQuery) {
       return false; // Will throw UnsupportedOperationException in case of a SpanRegexQuery.
     } else if (spanQuery instanceof FieldMaskingSpanQuery) {
-      return mustRewriteQuery(((FieldMaskingSpanQuery)spanQuery).getMaskedQuery());
+      return mustRewriteQuery(((FieldMaskingSpanQuery)spanQuery).getMaskedQuery(), expandMultiTermQuery);
     } else if (spanQuery instanceof SpanFirstQuery) {
-      return mustRewriteQuery(((SpanFirstQuery)spanQuery).getMatch());
+      return mustRewriteQuery(((SpanFirstQuery)spanQuery).getMatch(), expandMultiTermQuery);
     } else if (spanQuery instanceof SpanNearQuery) {
       for (final SpanQuery clause : ((SpanNearQuery)spanQuery).getClauses()) {
-        if (mustRewriteQuery(clause)) {
+        if (mustRewriteQuery(clause, expandMultiTermQuery)) {
           return true;
         }
       }
       return false; 
     } else if (spanQuery instanceof SpanNotQuery) {
       SpanNotQuery spanNotQuery = (SpanNotQuery)spanQuery;
-      return mustRewriteQuery(spanNotQuery.getInclude()) || mustRewriteQuery(spanNotQuery.getExclude());
+      return mustRewriteQuery(spanNotQuery.getInclude(), expandMultiTermQuery)
+          || mustRewriteQuery(spanNotQuery.getExclude(), expandMultiTermQuery);
     } else if (spanQuery instanceof SpanOrQuery) {
       for (final SpanQuery clause : ((SpanOrQuery)spanQuery).getClauses()) {
-        if (mustRewriteQuery(clause)) {
+        if (mustRewriteQuery(clause, expandMultiTermQuery)) {
           return true;
         }
       }
@@ -498,7 +573,7 @@ public class WeightedSpanTermExtractor {
    * This class makes sure that if both position sensitive and insensitive
    * versions of the same term are added, the position insensitive one wins.
    */
-  static private class PositionCheckingMap<K> extends HashMap<K,WeightedSpanTerm> {
+  static class PositionCheckingMap<K> extends HashMap<K,WeightedSpanTerm> {
 
     @Override
     public void putAll(Map<? extends K,? extends WeightedSpanTerm> m) {